@@ -1,7 +1,27 @@
 import { contentDiv } from './domElements.js';
+import { onLiveMessage, isLiveConnected } from './live.js';
 
 const API_PORT = 4567;
 let pollInterval = null;
+let viewActive = false;
+
+// Kept current by the live connection whether or not the view is open
+let liveDownloads = new Map();
+
+onLiveMessage('snapshot', (msg) => {
+  liveDownloads = new Map(msg.downloads.map(d => [d.hash, d]));
+  renderLive();
+});
+
+onLiveMessage('downloads', (msg) => {
+  msg.changed.forEach(d => liveDownloads.set(d.hash, { ...liveDownloads.get(d.hash), ...d }));
+  msg.removed.forEach(hash => liveDownloads.delete(hash));
+  renderLive();
+});
+
+function renderLive() {
+  if (viewActive) renderDownloads([...liveDownloads.values()]);
+}
 
 export function loadDownloads() {
   if (pollInterval) { clearInterval(pollInterval); pollInterval = null; }
@@ -23,11 +43,20 @@ export function loadDownloads() {
   if (window.feather) feather.replace();
 
   document.getElementById('dlRefreshBtn').addEventListener('click', fetchDownloads);
-  fetchDownloads();
-  pollInterval = setInterval(fetchDownloads, 2000);
+  viewActive = true;
+  if (isLiveConnected()) {
+    renderLive();
+  } else {
+    fetchDownloads();
+  }
+  // Only polls while the live connection is down
+  pollInterval = setInterval(() => {
+    if (!isLiveConnected()) fetchDownloads();
+  }, 2000);
 }
 
 export function stopDownloadPolling() {
+  viewActive = false;
   if (pollInterval) { clearInterval(pollInterval); pollInterval = null; }
 }
 
@@ -0,0 +1,35 @@
+// Live updates pushed by the backend over a WebSocket (/api/live), replacing polling.
+const API_PORT = 4567;
+const RECONNECT_DELAY = 2000;
+
+const listeners = { snapshot: [], downloads: [], library: [] };
+let socket = null;
+
+export function onLiveMessage(type, fn) {
+  listeners[type].push(fn);
+}
+
+export function isLiveConnected() {
+  return socket !== null && socket.readyState === WebSocket.OPEN;
+}
+
+export function connectLive() {
+  socket = new WebSocket(`ws://127.0.0.1:${API_PORT}/api/live`);
+
+  socket.addEventListener('message', (e) => {
+    let msg;
+    try {
+      msg = JSON.parse(e.data);
+    } catch (err) {
+      console.error('Bad live update:', err);
+      return;
+    }
+    (listeners[msg.type] || []).forEach(fn => fn(msg));
+  });
+
+  // A fresh snapshot is sent on every connect, so nothing is lost while disconnected
+  socket.addEventListener('close', () => {
+    socket = null;
+    setTimeout(connectLive, RECONNECT_DELAY);
+  });
+}
@@ -6,8 +6,10 @@ import { loadPlaylists, createPlaylist } from './playlist.js';
 import { loadHome } from './home.js';
 import { performSearch } from './search.js';
 import { openUploadModal } from './upload.js';
-import { setAllTracks } from './state.js';
+import { setAllTracks, refreshAllTracks } from './state.js';
 import { resetPlayer } from './trackPlayback.js';
+import { connectLive, onLiveMessage } from './live.js';
+import { loadLibraryGrid } from './library.js';
 
   async function fetchAllTracks(retries = 5, delay = 2000) {
   for (let i = 0; i < retries; i++) {
@@ -110,6 +112,22 @@ async function init() {
   initAudio();
   initNavigation();
   resetPlayer();
+
+  // Refetch the library only when its generation moves, including across reconnects
+  let libraryGeneration = null;
+  const onGeneration = async (msg) => {
+    const changed = libraryGeneration !== null && msg.generation !== libraryGeneration;
+    libraryGeneration = msg.generation;
+    if (!changed) return;
+    await refreshAllTracks();
+    const view = document.querySelector('.nav-item.active')?.dataset.view;
+    if (view === 'library' && !document.querySelector('.album-detail-container')) {
+      loadLibraryGrid();
+    }
+  };
+  onLiveMessage('snapshot', onGeneration);
+  onLiveMessage('library', onGeneration);
+  connectLive();
 }
 
 init();
\ No newline at end of file
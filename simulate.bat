@@ -0,0 +1,5 @@
+@echo off
+rem Runs the in-process keyword search simulation. Extra key=value arguments are
+rem passed through, e.g. simulate.bat nodes=200 queries=500 concurrency=8
+
+java -cp target/minerva-1.0.0.jar com.minerva.sim.SearchSimulation %*
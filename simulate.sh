@@ -0,0 +1,5 @@
+#!/bin/bash
+# Runs the in-process keyword search simulation. Extra key=value arguments are
+# passed through, e.g. ./simulate.sh nodes=200 queries=500 concurrency=8
+
+java -cp target/minerva-1.0.0.jar com.minerva.sim.SearchSimulation "$@"
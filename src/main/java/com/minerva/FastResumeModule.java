@@ -0,0 +1,25 @@
+package com.minerva;
+
+import bt.data.ChunkVerifier;
+import bt.data.DefaultChunkVerifier;
+import bt.data.digest.Digester;
+import bt.runtime.Config;
+import com.google.inject.AbstractModule;
+import com.google.inject.Provides;
+import com.google.inject.Singleton;
+import com.minerva.network.FastResumeStore;
+import com.minerva.network.FastResumeVerifier;
+
+public class FastResumeModule extends AbstractModule {
+    private final FastResumeStore store;
+
+    public FastResumeModule(FastResumeStore store) {
+        this.store = store;
+    }
+
+    @Provides
+    @Singleton
+    public ChunkVerifier provideVerifier(Config config, Digester digester) {
+        return new FastResumeVerifier(store, new DefaultChunkVerifier(digester, config.getNumOfHashingThreads()));
+    }
+}
@@ -0,0 +1,23 @@
+package com.minerva;
+
+import bt.module.ProtocolModule;
+import bt.module.ServiceModule;
+import com.google.inject.AbstractModule;
+import com.minerva.network.SearchExtensionAgent;
+import com.minerva.network.SearchExtensionMessage;
+import com.minerva.network.SearchExtensionMessageHandler;
+
+public class SearchExtensionModule extends AbstractModule {
+    private final SearchExtensionAgent agent;
+
+    public SearchExtensionModule(SearchExtensionAgent agent) {
+        this.agent = agent;
+    }
+
+    @Override
+    protected void configure() {
+        ProtocolModule.extend(binder())
+                .addExtendedMessageHandler(SearchExtensionMessage.EXTENSION_NAME, new SearchExtensionMessageHandler());
+        ServiceModule.extend(binder()).addMessagingAgent(agent);
+    }
+}
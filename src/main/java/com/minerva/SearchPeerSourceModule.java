@@ -0,0 +1,18 @@
+package com.minerva;
+
+import bt.module.ServiceModule;
+import com.google.inject.AbstractModule;
+import com.minerva.network.SearchPeerSourceFactory;
+
+public class SearchPeerSourceModule extends AbstractModule {
+    private final SearchPeerSourceFactory factory;
+
+    public SearchPeerSourceModule(SearchPeerSourceFactory factory) {
+        this.factory = factory;
+    }
+
+    @Override
+    protected void configure() {
+        ServiceModule.extend(binder()).addPeerSourceFactory(factory);
+    }
+}
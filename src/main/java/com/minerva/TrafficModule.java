@@ -0,0 +1,25 @@
+package com.minerva;
+
+import bt.net.IMessageDispatcher;
+import com.google.inject.AbstractModule;
+import com.minerva.network.BandwidthLimiter;
+import com.minerva.network.SwarmMonitor;
+import com.minerva.network.ThrottledMessageDispatcher;
+
+public class TrafficModule extends AbstractModule {
+    private final BandwidthLimiter limiter;
+    private final SwarmMonitor swarmMonitor;
+
+    public TrafficModule(BandwidthLimiter limiter, SwarmMonitor swarmMonitor) {
+        this.limiter = limiter;
+        this.swarmMonitor = swarmMonitor;
+    }
+
+    @Override
+    protected void configure() {
+        bind(BandwidthLimiter.class).toInstance(limiter);
+        bind(SwarmMonitor.class).toInstance(swarmMonitor);
+        // Eager like bt's own binding: the dispatcher hooks into the runtime lifecycle when it is built
+        bind(IMessageDispatcher.class).to(ThrottledMessageDispatcher.class).asEagerSingleton();
+    }
+}
@@ -2,11 +2,18 @@ package com.minerva.backend;
 
 import com.minerva.library.LibraryManager;
 import com.minerva.model.MusicFile;
+import com.minerva.network.BandwidthLimiter;
+import com.minerva.network.DownloadQueue;
 import com.minerva.network.JLibTorrentManager;
+import com.minerva.network.RateHistory;
+import com.minerva.network.SwarmMonitor;
+import com.minerva.network.TorrentEventBus;
+import com.minerva.network.TorrentFileStream;
 import com.minerva.playlist.PlaylistManager;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import io.javalin.Javalin;
 import io.javalin.http.UploadedFile;
+import com.minerva.dht.CatalogSync;
 import com.minerva.dht.DHTKeywordManager;
 import com.minerva.dht.KeywordSearchClient;
 import com.minerva.dht.KeywordSearchServer;
@@ -22,23 +29,29 @@ import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import bt.data.Storage;
-import bt.dht.DHTService;
-import bt.metainfo.TorrentId;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 public class BackendServer {
     private final LibraryManager libraryManager;
     private final JLibTorrentManager torrentManager;
     private final PlaylistManager playlistManager;
+    private final LiveUpdates liveUpdates;
     private final Path projectRoot;
     private final ObjectMapper objectMapper = new ObjectMapper();
     private static final Logger logger = LoggerFactory.getLogger(BackendServer.class);
+    private static final int DHT_READY_TIMEOUT_SEC = 30;
     private final DHTKeywordManager dhtKeywordManager;
     private final KeywordSearchServer keywordSearchServer;
+    private final CatalogSync catalogSync;
     private final Map<String, Map<String, Object>> pendingDownloads = new ConcurrentHashMap<>();
+    // Background network searches that keep the catalog fresh; bounded so a burst of
+    // catalog hits cannot pile up searches
+    private final Set<String> catalogRefreshes = ConcurrentHashMap.newKeySet();
+    private final ExecutorService catalogRefresher = new java.util.concurrent.ThreadPoolExecutor(
+            1, 2, 60, TimeUnit.SECONDS, new java.util.concurrent.LinkedBlockingQueue<>(16));
 
     private final Path libraryPath;
     private final Path torrentsPath;
@@ -70,10 +83,13 @@ public class BackendServer {
         }
 
         this.torrentManager = JLibTorrentManager.getInstance(downloadsPath.toFile());
+        this.torrentManager.setTorrentDirectory(torrentsPath);
         this.libraryManager = new LibraryManager(torrentManager, libraryPath, torrentsPath);
         this.playlistManager = new PlaylistManager(projectRoot.toString());
 
-        this.torrentManager.setDownloadCompleteCallback(hashHex -> {
+        // Imports run one at a time on the event bus, in the order downloads complete
+        this.torrentManager.getEvents().subscribe("library-import", event -> {
+            String hashHex = event.hash;
             Map<String, Object> metadata = pendingDownloads.remove(hashHex);
             if (metadata == null) {
                 logger.info("Torrent finished {} but no pending metadata (likely already in library)", hashHex);
@@ -85,61 +101,94 @@ public class BackendServer {
             List<Map<String, String>> tracks = (List<Map<String, String>>) metadata.get("tracks");
             logger.info("Download completed for {} - importing to library as {}/{}", hashHex, artist, album);
 
-            new Thread(() -> {
-                try {
-                    libraryManager.importCompletedDownload(hashHex, artist, album, tracks);
-                    logger.info("Successfully imported and auto-seeding: {}", hashHex);
-                } catch (Exception e) {
-                    logger.error("Failed to import download {} into library", hashHex, e);
-                }
-            }, "DownloadImport-" + hashHex.substring(0, Math.min(8, hashHex.length()))).start();
-        });
-
-        // ... after setting download callback ...
-
-String minervaInfohash = "2a242fcb7604ddcf795af2c60546a1b7e2be3f40"; // your private network infohash
-TorrentId minervaId = TorrentId.fromBytes(hexToBytes(minervaInfohash));
-
-ScheduledExecutorService announcer = Executors.newSingleThreadScheduledExecutor();
-announcer.scheduleAtFixedRate(() -> {
-    try {
-        DHTService dhtService = torrentManager.getDHTService();
-        if (dhtService != null) {
-            // Debug: print all methods of the actual implementation class
-            for (java.lang.reflect.Method m : dhtService.getClass().getMethods()) {
-                if (m.getName().toLowerCase().contains("announ")) { // catches announce, announcing, etc.
-                    logger.info("Found method: " + m.toGenericString());
-                }
+            try {
+                libraryManager.importCompletedDownload(hashHex, artist, album, tracks);
+                logger.info("Successfully imported and auto-seeding: {}", hashHex);
+            } catch (Exception e) {
+                logger.error("Failed to import download {} into library", hashHex, e);
             }
-
-            // Now, based on what you see, call the correct method.
-            // For example, if you see 'public void announce(TorrentId, int)'
-            // then use: dhtService.announce(minervaId, torrentManager.getListenPort());
-
-            // For now, we'll just log that we're here
-            logger.info("DHTService obtained, but announce method unknown.");
-        } else {
-            logger.warn("DHTService not available – cannot announce");
-        }
-    } catch (Exception e) {
-        logger.error("Failed to announce", e);
-    }
-}, 1, 30, TimeUnit.MINUTES);
-// Store the announcer if you need to shut it down later (optional)
-// this.announcer = announcer;
-
-// ... rest of constructor (DHTKeywordManager, KeywordSearchServer) ...
+        }, TorrentEventBus.Type.COMPLETE);
+        this.liveUpdates = new LiveUpdates(torrentManager, libraryManager,
+                Long.parseLong(System.getenv().getOrDefault("LIVE_UPDATE_INTERVAL_MS", "1000")));
 
         this.dhtKeywordManager = new DHTKeywordManager(searchPort, torrentManager, crawlerUrl);
         try {
             this.keywordSearchServer = new KeywordSearchServer(searchPort, libraryManager, torrentManager.getListenPort(), dhtKeywordManager);
             this.keywordSearchServer.start();
+            torrentManager.getSearchExtension().setQueryHandler(keywordSearchServer::answerExtensionQuery);
+            torrentManager.startDiscoveryAnnounce(searchPort);
+            // TRUSTED_NODES: comma-separated search endpoints of our own nodes to mirror
+            this.catalogSync = new CatalogSync(libraryManager, dhtKeywordManager.getCatalog(),
+                    torrentManager.getListenPort(),
+                    CatalogSync.parseNodes(System.getenv("TRUSTED_NODES")),
+                    Long.parseLong(System.getenv().getOrDefault("SYNC_KBPS", "256")) * 1024,
+                    Paths.get("minerva_sync_state.json"));
+            keywordSearchServer.setCatalogSync(catalogSync);
+            catalogSync.start();
             logger.info("Keyword search server started on port {}", searchPort);
         } catch (IOException e) {
             throw new RuntimeException("Failed to start keyword search server", e);
         }
     }
 
+    /**
+     * Looks every keyword up through {@code source} in parallel and keeps the tracks
+     * matched by at least half of the keywords, most matches first.
+     */
+    private List<MusicFile> rankByKeywordMatches(String[] keywords,
+                                                 Function<String, List<KeywordSearchClient.SearchResult>> source) {
+        Map<String, MusicFile> trackByKey = new ConcurrentHashMap<>();
+        Map<String, java.util.concurrent.atomic.AtomicInteger> matchCounts = new ConcurrentHashMap<>();
+        ExecutorService searchExecutor = Executors.newFixedThreadPool(keywords.length);
+        List<java.util.concurrent.Future<?>> searchFutures = new ArrayList<>();
+        for (String kw : keywords) {
+            searchFutures.add(searchExecutor.submit(() -> {
+                List<KeywordSearchClient.SearchResult> peerResults = source.apply(kw);
+                Set<String> seenForThisKeyword = new HashSet<>();
+                for (KeywordSearchClient.SearchResult sr : peerResults) {
+                    String key = (sr.torrentHash != null ? sr.torrentHash : "") + "|" + (sr.title != null ? sr.title : "");
+                    if (seenForThisKeyword.add(key)) {
+                        MusicFile mf = new MusicFile();
+                        mf.setTitle(sr.title);
+                        mf.setArtist(sr.artist);
+                        mf.setAlbum(sr.album);
+                        mf.setTorrentHash(sr.torrentHash);
+                        if (sr.genre != null) mf.setGenre(sr.genre);
+                        if (sr.year != null) mf.setYear(sr.year);
+                        trackByKey.putIfAbsent(key, mf);
+                        matchCounts.computeIfAbsent(key, k -> new java.util.concurrent.atomic.AtomicInteger(0)).incrementAndGet();
+                    }
+                }
+            }));
+        }
+        for (java.util.concurrent.Future<?> f : searchFutures) {
+            try { f.get(10, java.util.concurrent.TimeUnit.SECONDS); } catch (Exception ignored) {}
+        }
+        searchExecutor.shutdownNow();
+        int threshold = Math.max(1, keywords.length / 2);
+        return trackByKey.entrySet().stream()
+                .filter(e -> matchCounts.get(e.getKey()).get() >= threshold)
+                .sorted((a, b) -> matchCounts.get(b.getKey()).get() - matchCounts.get(a.getKey()).get())
+                .map(Map.Entry::getValue)
+                .collect(Collectors.toList());
+    }
+
+    /** Runs the network search for {@code query} in the background, once at a time per query. */
+    private void refreshCatalogAsync(String query, String[] keywords) {
+        if (!catalogRefreshes.add(query)) return;
+        try {
+            catalogRefresher.execute(() -> {
+                try {
+                    rankByKeywordMatches(keywords, dhtKeywordManager::searchKeyword);
+                } finally {
+                    catalogRefreshes.remove(query);
+                }
+            });
+        } catch (java.util.concurrent.RejectedExecutionException e) {
+            catalogRefreshes.remove(query);
+        }
+    }
+
     public void start(int port) {
         long maxSize = 500_000_000L;
 
@@ -165,7 +214,11 @@ announcer.scheduleAtFixedRate(() -> {
                 libraryManager.loadLibraryFromTorrents();
 
                 logger.info("Waiting for DHT bootstrap before announcing keywords...");
-                Thread.sleep(5000);
+                try {
+                    torrentManager.dhtReady().get(DHT_READY_TIMEOUT_SEC, TimeUnit.SECONDS);
+                } catch (TimeoutException e) {
+                    logger.warn("DHT not bootstrapped after {} s, continuing", DHT_READY_TIMEOUT_SEC);
+                }
                 libraryManager.announceAllKeywords(dhtKeywordManager);
                 logger.info("Keyword announcement complete.");
 
@@ -221,41 +274,17 @@ announcer.scheduleAtFixedRate(() -> {
                 return;
             }
             String[] keywords = query.toLowerCase().split("\\s+");
-            Map<String, MusicFile> trackByKey = new ConcurrentHashMap<>();
-            Map<String, java.util.concurrent.atomic.AtomicInteger> matchCounts = new ConcurrentHashMap<>();
-            ExecutorService searchExecutor = Executors.newFixedThreadPool(keywords.length);
-            List<java.util.concurrent.Future<?>> searchFutures = new ArrayList<>();
-            for (String kw : keywords) {
-                searchFutures.add(searchExecutor.submit(() -> {
-                    List<KeywordSearchClient.SearchResult> peerResults = dhtKeywordManager.searchKeyword(kw);
-                    Set<String> seenForThisKeyword = new HashSet<>();
-                    for (KeywordSearchClient.SearchResult sr : peerResults) {
-                        String key = (sr.torrentHash != null ? sr.torrentHash : "") + "|" + (sr.title != null ? sr.title : "");
-                        if (seenForThisKeyword.add(key)) {
-                            MusicFile mf = new MusicFile();
-                            mf.setTitle(sr.title);
-                            mf.setArtist(sr.artist);
-                            mf.setAlbum(sr.album);
-                            mf.setTorrentHash(sr.torrentHash);
-                            if (sr.genre != null) mf.setGenre(sr.genre);
-                            if (sr.year != null) mf.setYear(sr.year);
-                            trackByKey.putIfAbsent(key, mf);
-                            matchCounts.computeIfAbsent(key, k -> new java.util.concurrent.atomic.AtomicInteger(0)).incrementAndGet();
-                        }
-                    }
-                }));
-            }
-            for (java.util.concurrent.Future<?> f : searchFutures) {
-                try { f.get(10, java.util.concurrent.TimeUnit.SECONDS); } catch (Exception ignored) {}
+
+            // Answer from the network catalog right away and refresh it from the
+            // network in the background; only a query the catalog knows nothing
+            // about waits for the peers.
+            List<MusicFile> cached = rankByKeywordMatches(keywords, dhtKeywordManager::searchCatalog);
+            if (!cached.isEmpty()) {
+                refreshCatalogAsync(query.toLowerCase(), keywords);
+                ctx.json(cached);
+                return;
             }
-            searchExecutor.shutdownNow();
-            int threshold = Math.max(1, keywords.length / 2);
-            List<MusicFile> ranked = trackByKey.entrySet().stream()
-                    .filter(e -> matchCounts.get(e.getKey()).get() >= threshold)
-                    .sorted((a, b) -> matchCounts.get(b.getKey()).get() - matchCounts.get(a.getKey()).get())
-                    .map(Map.Entry::getValue)
-                    .collect(Collectors.toList());
-            ctx.json(ranked);
+            ctx.json(rankByKeywordMatches(keywords, dhtKeywordManager::searchKeyword));
         });
 
         app.post("/api/fetch-torrent/{hash}", ctx -> {
@@ -272,13 +301,30 @@ announcer.scheduleAtFixedRate(() -> {
                     }
                 }
 
+                DownloadQueue.Priority priority = DownloadQueue.Priority.NORMAL;
+                if (metadata != null && metadata.get("priority") != null) {
+                    try {
+                        priority = DownloadQueue.Priority.valueOf(metadata.get("priority").toString().toUpperCase());
+                    } catch (IllegalArgumentException e) {
+                        ctx.status(400).result("priority must be HIGH, NORMAL or LOW");
+                        return;
+                    }
+                }
+
                 if (metadata != null && metadata.containsKey("artist") && metadata.containsKey("album")) {
                     pendingDownloads.put(hash, metadata);
                     logger.info("Stored pending download metadata for {}: artist={}, album={}",
                             hash, metadata.get("artist"), metadata.get("album"));
                 }
 
-                torrentManager.seedMagnet(magnet);  // result variable removed
+                // Optional "files": indexes or names of the files to fetch, e.g. a single track of an album
+                JLibTorrentManager.FileSelection selection = JLibTorrentManager.FileSelection.ALL;
+                if (metadata != null && metadata.get("files") instanceof List) {
+                    selection = JLibTorrentManager.FileSelection.of((List<?>) metadata.get("files"));
+                }
+
+                dhtKeywordManager.injectKnownPeers(hash);
+                torrentManager.seedMagnet(magnet, selection, priority);
                 Path torrentFilePath = torrentsPath.resolve(hash + ".torrent");
                 torrentManager.saveTorrentFile(hash, torrentFilePath);
 
@@ -295,20 +341,7 @@ announcer.scheduleAtFixedRate(() -> {
                 List<JLibTorrentManager.TorrentStatus> statuses = torrentManager.getTorrentStatuses();
                 List<Map<String, Object>> downloads = new ArrayList<>();
                 for (JLibTorrentManager.TorrentStatus ts : statuses) {
-                    Map<String, Object> info = new LinkedHashMap<>();
-                    info.put("hash", ts.hash);
-                    info.put("name", ts.name);
-                    info.put("progress", Math.round(ts.progress * 10000.0) / 100.0);
-                    info.put("downloadRate", ts.downloadRate);
-                    info.put("uploadRate", ts.uploadRate);
-                    info.put("totalSize", ts.totalSize);
-                    info.put("totalDone", ts.totalDone);
-                    info.put("peers", ts.peers);
-                    info.put("seeds", ts.seeds);
-                    info.put("state", ts.state);
-                    info.put("seeding", ts.seeding);
-                    info.put("paused", ts.paused);
-                    downloads.add(info);
+                    downloads.add(LiveUpdates.describe(ts));
                 }
                 ctx.json(downloads);
             } catch (Exception e) {
@@ -317,6 +350,31 @@ announcer.scheduleAtFixedRate(() -> {
             }
         });
 
+        // Status deltas and library changes, instead of polling /api/downloads and /api/albums
+        app.ws("/api/live", ws -> {
+            ws.onConnect(liveUpdates::connect);
+            ws.onClose(liveUpdates::disconnect);
+            ws.onError(liveUpdates::disconnect);
+        });
+
+        app.get("/api/downloads/{hash}/history", ctx -> {
+            List<RateHistory.Sample> history = torrentManager.getRateHistory(ctx.pathParam("hash"));
+            if (history == null) {
+                ctx.status(404).result("Download not found");
+            } else {
+                ctx.json(history);
+            }
+        });
+
+        app.get("/api/downloads/{hash}/peers", ctx -> {
+            List<SwarmMonitor.PeerInfo> peers = torrentManager.getPeers(ctx.pathParam("hash"));
+            if (peers == null) {
+                ctx.status(404).result("Download not found");
+            } else {
+                ctx.json(peers);
+            }
+        });
+
         app.post("/api/downloads/{hash}/pause", ctx -> {
             String hash = ctx.pathParam("hash");
             try {
@@ -337,6 +395,89 @@ announcer.scheduleAtFixedRate(() -> {
             }
         });
 
+        app.post("/api/downloads/{hash}/priority", ctx -> {
+            String hash = ctx.pathParam("hash");
+            String level = ctx.queryParam("level");
+            try {
+                DownloadQueue.Priority priority = DownloadQueue.Priority.valueOf(String.valueOf(level).toUpperCase());
+                if (torrentManager.setDownloadPriority(hash, priority)) {
+                    ctx.status(200).result("Priority set to " + priority);
+                } else {
+                    ctx.status(404).result("Download not found");
+                }
+            } catch (IllegalArgumentException e) {
+                ctx.status(400).result("level must be HIGH, NORMAL or LOW");
+            }
+        });
+
+        app.post("/api/downloads/{hash}/move", ctx -> {
+            String hash = ctx.pathParam("hash");
+            try {
+                int position = Integer.parseInt(String.valueOf(ctx.queryParam("position")));
+                if (torrentManager.moveInQueue(hash, position)) {
+                    ctx.status(200).result("Moved");
+                } else {
+                    ctx.status(404).result("Download not queued");
+                }
+            } catch (NumberFormatException e) {
+                ctx.status(400).result("position must be a number");
+            }
+        });
+
+        app.post("/api/downloads/{hash}/pin", ctx -> {
+            String hash = ctx.pathParam("hash");
+            if (torrentManager.setPinned(hash, true)) {
+                ctx.status(200).result("Pinned");
+            } else {
+                ctx.status(404).result("Download not found");
+            }
+        });
+
+        app.post("/api/downloads/{hash}/unpin", ctx -> {
+            String hash = ctx.pathParam("hash");
+            if (torrentManager.setPinned(hash, false)) {
+                ctx.status(200).result("Unpinned");
+            } else {
+                ctx.status(404).result("Download not found");
+            }
+        });
+
+        // Limits are in bytes per second, 0 for unlimited
+        app.put("/api/downloads/{hash}/limits", ctx -> {
+            String hash = ctx.pathParam("hash");
+            try {
+                Map<String, Object> body = objectMapper.readValue(ctx.body(), Map.class);
+                long upload = ((Number) body.getOrDefault("uploadLimit", 0)).longValue();
+                long download = ((Number) body.getOrDefault("downloadLimit", 0)).longValue();
+                torrentManager.getBandwidthLimiter().setTorrentLimit(hash, upload, download);
+                ctx.status(200).result("Limits set");
+            } catch (Exception e) {
+                ctx.status(400).result("Invalid limits: " + e.getMessage());
+            }
+        });
+
+        app.get("/api/bandwidth", ctx -> {
+            BandwidthLimiter limiter = torrentManager.getBandwidthLimiter();
+            Map<String, Object> info = new LinkedHashMap<>();
+            info.put("settings", limiter.getSettings());
+            info.put("playbackTorrent", limiter.getPlaybackTorrent());
+            ctx.json(info);
+        });
+
+        // Fields left out of the body keep their current values
+        app.put("/api/bandwidth", ctx -> {
+            BandwidthLimiter limiter = torrentManager.getBandwidthLimiter();
+            try {
+                BandwidthLimiter.Settings settings = objectMapper
+                        .readerForUpdating(objectMapper.convertValue(limiter.getSettings(), BandwidthLimiter.Settings.class))
+                        .readValue(ctx.body());
+                limiter.update(settings);
+                ctx.json(limiter.getSettings());
+            } catch (Exception e) {
+                ctx.status(400).result("Invalid bandwidth settings: " + e.getMessage());
+            }
+        });
+
         app.delete("/api/downloads/{hash}", ctx -> {
             String hash = ctx.pathParam("hash");
             try {
@@ -443,7 +584,14 @@ announcer.scheduleAtFixedRate(() -> {
             String id = ctx.pathParam("id");
             MusicFile track = libraryManager.getTrackById(id);
             if (track == null) {
-                ctx.status(404).result("Track not found");
+                // Not in the library yet, maybe a file of an active download: <hash> or <hash>_<fileIndex>
+                TorrentFileStream stream = openDownloadStream(id);
+                if (stream == null) {
+                    ctx.status(404).result("Track not found");
+                    return;
+                }
+                logger.debug("Streaming {} from active download {}", stream.getFileName(), id);
+                ctx.seekableStream(stream, "audio/mpeg", stream.length());
                 return;
             }
             File file = projectRoot.resolve(track.getFilePath()).toFile();
@@ -451,6 +599,7 @@ announcer.scheduleAtFixedRate(() -> {
                 ctx.status(404).result("File not found");
                 return;
             }
+            torrentManager.releasePlayback();
             ctx.contentType("audio/mpeg");
             try {
                 byte[] data = Files.readAllBytes(file.toPath());
@@ -614,6 +763,21 @@ announcer.scheduleAtFixedRate(() -> {
         });
     }
 
+    private TorrentFileStream openDownloadStream(String id) {
+        String hash = id;
+        int fileIndex = 0;
+        int sep = id.lastIndexOf('_');
+        if (sep > 0) {
+            hash = id.substring(0, sep);
+            try {
+                fileIndex = Integer.parseInt(id.substring(sep + 1));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return torrentManager.openFileStream(hash.toLowerCase(), fileIndex);
+    }
+
     private String sanitizeFileName(String name) {
         if (name == null) return "unknown";
         return name.replaceAll("[\\\\/:*?\"<>|]", "_")
@@ -621,16 +785,6 @@ announcer.scheduleAtFixedRate(() -> {
                    .trim();
     }
 
-    private static byte[] hexToBytes(String hex) {
-    int len = hex.length();
-    byte[] out = new byte[len / 2];
-    for (int i = 0; i < len; i += 2) {
-        out[i / 2] = (byte) ((Character.digit(hex.charAt(i), 16) << 4)
-                             + Character.digit(hex.charAt(i + 1), 16));
-    }
-    return out;
-    }
-
     public static void main(String[] args) {
         int port = Integer.parseInt(System.getenv().getOrDefault("API_PORT", "4567"));
         new BackendServer().start(port);
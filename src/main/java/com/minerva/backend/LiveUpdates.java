@@ -0,0 +1,200 @@
+package com.minerva.backend;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.minerva.library.LibraryManager;
+import com.minerva.network.JLibTorrentManager;
+import com.minerva.network.TorrentEventBus;
+import io.javalin.websocket.WsContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pushes download status and library changes to the UI over a WebSocket, so it
+ * does not have to poll. Torrent events only mark a download as changed; once
+ * per interval the changed downloads are described again and clients are sent
+ * just the fields that differ from what they last got, so any number of
+ * progress events in between cost one message. Library changes are sent as the
+ * new library generation. Nothing is built while no client is connected.
+ *
+ * <p>Messages are JSON objects with a {@code type}: {@code snapshot} (all
+ * downloads and the generation, sent on connect), {@code downloads}
+ * ({@code changed} partial entries keyed by {@code hash}, and {@code removed}
+ * hashes) and {@code library} ({@code generation}).
+ */
+public class LiveUpdates {
+    private static final Logger logger = LoggerFactory.getLogger(LiveUpdates.class);
+
+    private final JLibTorrentManager torrentManager;
+    private final LibraryManager libraryManager;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Set<WsContext> clients = ConcurrentHashMap.newKeySet();
+    private final Set<WsContext> joining = ConcurrentHashMap.newKeySet();
+    private final Set<String> changed = ConcurrentHashMap.newKeySet();
+    private volatile boolean allChanged = true;
+    private final ScheduledExecutorService pusher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "live-updates");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // What clients were last sent; only touched on the pusher thread
+    private final Map<String, Map<String, Object>> sent = new LinkedHashMap<>();
+    private long sentGeneration = -1;
+
+    public LiveUpdates(JLibTorrentManager torrentManager, LibraryManager libraryManager, long intervalMs) {
+        this.torrentManager = torrentManager;
+        this.libraryManager = libraryManager;
+        torrentManager.getEvents().subscribe("live-updates", this::onEvent);
+        pusher.scheduleWithFixedDelay(this::push, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /** A download as the API shows it. */
+    static Map<String, Object> describe(JLibTorrentManager.TorrentStatus ts) {
+        Map<String, Object> info = new LinkedHashMap<>();
+        info.put("hash", ts.hash);
+        info.put("name", ts.name);
+        info.put("progress", Math.round(ts.progress * 10000.0) / 100.0);
+        info.put("downloadRate", ts.downloadRate);
+        info.put("uploadRate", ts.uploadRate);
+        info.put("totalSize", ts.totalSize);
+        info.put("totalDone", ts.totalDone);
+        info.put("peers", ts.peers);
+        info.put("seeds", ts.seeds);
+        info.put("leechers", ts.leechers);
+        info.put("availability", Math.round(ts.availability * 1000.0) / 1000.0);
+        info.put("unavailablePieces", ts.unavailablePieces);
+        info.put("state", ts.state);
+        info.put("seeding", ts.seeding);
+        info.put("pinned", ts.pinned);
+        info.put("priority", ts.priority);
+        info.put("queuePosition", ts.queuePosition);
+        info.put("paused", ts.paused);
+        return info;
+    }
+
+    public void connect(WsContext ctx) {
+        joining.add(ctx);
+    }
+
+    public void disconnect(WsContext ctx) {
+        joining.remove(ctx);
+        clients.remove(ctx);
+    }
+
+    private void onEvent(TorrentEventBus.Event event) {
+        if (clients.isEmpty() && joining.isEmpty()) return;
+        if (event.type == TorrentEventBus.Type.PROGRESS || event.type == TorrentEventBus.Type.METADATA) {
+            changed.add(event.hash);
+        } else {
+            // Starts, completions and queue changes can move the queue positions of every download
+            allChanged = true;
+        }
+    }
+
+    private void push() {
+        try {
+            if (clients.isEmpty() && joining.isEmpty()) {
+                sent.clear();
+                sentGeneration = -1;
+                changed.clear();
+                allChanged = true;
+                return;
+            }
+            pushDownloads();
+            pushLibrary();
+            for (WsContext ctx : joining) {
+                Map<String, Object> snapshot = new LinkedHashMap<>();
+                snapshot.put("type", "snapshot");
+                snapshot.put("downloads", sent.values());
+                snapshot.put("generation", sentGeneration);
+                joining.remove(ctx);
+                if (send(ctx, objectMapper.writeValueAsString(snapshot))) clients.add(ctx);
+            }
+        } catch (Exception e) {
+            logger.warn("Failed to push live updates", e);
+        }
+    }
+
+    private void pushDownloads() throws Exception {
+        Map<String, JLibTorrentManager.TorrentStatus> statuses = new LinkedHashMap<>();
+        if (allChanged) {
+            allChanged = false;
+            changed.clear();
+            for (String hash : sent.keySet()) statuses.put(hash, null);
+            for (JLibTorrentManager.TorrentStatus ts : torrentManager.getTorrentStatuses()) statuses.put(ts.hash, ts);
+        } else {
+            for (String hash : new HashSet<>(changed)) {
+                changed.remove(hash);
+                statuses.put(hash, torrentManager.getTorrentStatus(hash));
+            }
+        }
+
+        List<Map<String, Object>> deltas = new ArrayList<>();
+        List<String> removed = new ArrayList<>();
+        for (Map.Entry<String, JLibTorrentManager.TorrentStatus> e : statuses.entrySet()) {
+            String hash = e.getKey();
+            if (e.getValue() == null) {
+                if (sent.remove(hash) != null) removed.add(hash);
+                continue;
+            }
+            Map<String, Object> now = describe(e.getValue());
+            Map<String, Object> before = sent.put(hash, now);
+            Map<String, Object> delta = new LinkedHashMap<>();
+            delta.put("hash", hash);
+            for (Map.Entry<String, Object> field : now.entrySet()) {
+                if (before == null || !Objects.equals(before.get(field.getKey()), field.getValue())) {
+                    delta.put(field.getKey(), field.getValue());
+                }
+            }
+            if (delta.size() > 1) deltas.add(delta);
+        }
+        if (deltas.isEmpty() && removed.isEmpty()) return;
+
+        Map<String, Object> message = new LinkedHashMap<>();
+        message.put("type", "downloads");
+        message.put("changed", deltas);
+        message.put("removed", removed);
+        broadcast(objectMapper.writeValueAsString(message));
+    }
+
+    private void pushLibrary() throws Exception {
+        long generation = libraryManager.getGeneration();
+        if (generation == sentGeneration) return;
+        boolean first = sentGeneration < 0;
+        sentGeneration = generation;
+        if (first) return;
+        Map<String, Object> message = new LinkedHashMap<>();
+        message.put("type", "library");
+        message.put("generation", generation);
+        broadcast(objectMapper.writeValueAsString(message));
+    }
+
+    private void broadcast(String json) {
+        for (WsContext ctx : clients) {
+            if (!send(ctx, json)) clients.remove(ctx);
+        }
+    }
+
+    private boolean send(WsContext ctx, String json) {
+        try {
+            if (!ctx.session.isOpen()) return false;
+            ctx.send(json);
+            return true;
+        } catch (Exception e) {
+            logger.debug("Dropping live update client {}: {}", ctx.getSessionId(), e.getMessage());
+            return false;
+        }
+    }
+}
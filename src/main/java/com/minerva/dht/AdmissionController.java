@@ -0,0 +1,114 @@
+package com.minerva.dht;
+
+import java.net.InetAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides whether the search server should answer a new connection. Each remote
+ * IP has its own token bucket and all queries share a global bucket, so a single
+ * scanner or a flood from many addresses is rejected before any work is done.
+ * Loopback requesters are only subject to the global limit.
+ */
+public class AdmissionController {
+    private static final int MAX_TRACKED_IPS = 4096;
+
+    private final double perIpRate;
+    private final double perIpBurst;
+    private final TokenBucket global;
+    private final Map<InetAddress, TokenBucket> perIp = new ConcurrentHashMap<>();
+
+    static class TokenBucket {
+        private final double ratePerNano;
+        private final double capacity;
+        private double tokens;
+        private long lastRefill;
+
+        TokenBucket(double ratePerSecond, double capacity) {
+            this.ratePerNano = ratePerSecond / 1_000_000_000.0;
+            this.capacity = capacity;
+            this.tokens = capacity;
+            this.lastRefill = System.nanoTime();
+        }
+
+        synchronized boolean tryAcquire() {
+            refill();
+            if (tokens < 1.0) return false;
+            tokens -= 1.0;
+            return true;
+        }
+
+        synchronized void release() {
+            refill();
+            tokens = Math.min(capacity, tokens + 1.0);
+        }
+
+        /**
+         * Takes {@code amount} tokens, sleeping while the bucket is empty. A request
+         * larger than the bucket overdraws it and later callers wait off the debt.
+         */
+        void acquire(double amount) throws InterruptedException {
+            while (true) {
+                long waitNanos;
+                synchronized (this) {
+                    refill();
+                    if (tokens > 0) {
+                        tokens -= amount;
+                        return;
+                    }
+                    waitNanos = (long) (-tokens / ratePerNano) + 1;
+                }
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            }
+        }
+
+        synchronized boolean isFull() {
+            refill();
+            return tokens >= capacity;
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            tokens = Math.min(capacity, tokens + (now - lastRefill) * ratePerNano);
+            lastRefill = now;
+        }
+    }
+
+    /**
+     * @param perIpRate  sustained queries per second allowed from one address
+     * @param perIpBurst queries one address may send back to back
+     * @param globalQps  ceiling on queries per second across all addresses
+     */
+    public AdmissionController(double perIpRate, double perIpBurst, double globalQps) {
+        this.perIpRate = perIpRate;
+        this.perIpBurst = perIpBurst;
+        this.global = new TokenBucket(globalQps, globalQps);
+    }
+
+    public boolean tryAdmit(InetAddress address) {
+        if (address.isLoopbackAddress()) return global.tryAcquire();
+        if (perIp.size() > MAX_TRACKED_IPS) {
+            // A full bucket behaves exactly like a new one, so dropping them loses nothing
+            perIp.values().removeIf(TokenBucket::isFull);
+        }
+        TokenBucket bucket = perIp.computeIfAbsent(address, a -> new TokenBucket(perIpRate, perIpBurst));
+        if (!bucket.tryAcquire()) return false;
+        if (global.tryAcquire()) return true;
+        // Turned away by the global limit: the address did not get an answer, so it is not charged
+        bucket.release();
+        return false;
+    }
+
+    /**
+     * Gives back the tokens of an admitted query that was not answered, e.g. a UDP
+     * query the client will repeat over TCP, so it is only charged once.
+     */
+    public void refund(InetAddress address) {
+        if (!address.isLoopbackAddress()) {
+            TokenBucket bucket = perIp.get(address);
+            if (bucket != null) bucket.release();
+        }
+        global.release();
+    }
+}
@@ -0,0 +1,90 @@
+package com.minerva.dht;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Fixed-shape Merkle tree over a set of albums, each given as torrent hash and
+ * metadata digest (both hex). Albums are bucketed by the first {@link #DEPTH}
+ * hex digits of their torrent hash; every node is named by that prefix, the root
+ * by the empty string. Two trees built on different nodes agree on a prefix
+ * exactly when the albums under it agree, so a sync only descends into the
+ * prefixes whose hashes differ.
+ */
+public class CatalogMerkleTree {
+    public static final int DEPTH = 2;
+
+    private final Map<String, String> nodeHashes = new HashMap<>();
+    private final Map<String, Map<String, String>> buckets = new HashMap<>();
+
+    /** @param leaves torrent hash to metadata digest */
+    public CatalogMerkleTree(Map<String, String> leaves) {
+        for (Map.Entry<String, String> e : new TreeMap<>(leaves).entrySet()) {
+            String hash = e.getKey().toLowerCase();
+            if (hash.length() < DEPTH) continue;
+            buckets.computeIfAbsent(hash.substring(0, DEPTH), b -> new TreeMap<>()).put(hash, e.getValue());
+        }
+        for (Map.Entry<String, Map<String, String>> bucket : buckets.entrySet()) {
+            nodeHashes.put(bucket.getKey(), sha1(bucket.getValue()));
+        }
+        for (int level = DEPTH - 1; level >= 0; level--) {
+            Map<String, Map<String, String>> parents = new HashMap<>();
+            for (Map.Entry<String, String> node : nodeHashes.entrySet()) {
+                if (node.getKey().length() != level + 1) continue;
+                parents.computeIfAbsent(node.getKey().substring(0, level), p -> new TreeMap<>())
+                        .put(node.getKey(), node.getValue());
+            }
+            for (Map.Entry<String, Map<String, String>> parent : parents.entrySet()) {
+                nodeHashes.put(parent.getKey(), sha1(parent.getValue()));
+            }
+        }
+    }
+
+    /** Hash of the node at {@code prefix}, or {@code null} when no album falls under it. */
+    public String hash(String prefix) {
+        return nodeHashes.get(prefix);
+    }
+
+    public String root() {
+        return hash("");
+    }
+
+    /** Hashes of the non-empty children of an inner node, keyed by child prefix. */
+    public Map<String, String> children(String prefix) {
+        Map<String, String> children = new TreeMap<>();
+        if (prefix.length() >= DEPTH) return children;
+        for (char c : "0123456789abcdef".toCharArray()) {
+            String child = prefix + c;
+            String h = nodeHashes.get(child);
+            if (h != null) children.put(child, h);
+        }
+        return children;
+    }
+
+    /** The albums in a bucket (a prefix of length {@link #DEPTH}), torrent hash to digest. */
+    public Map<String, String> leaves(String bucket) {
+        return buckets.getOrDefault(bucket, Map.of());
+    }
+
+    static String sha1(Map<String, String> entries) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            for (Map.Entry<String, String> e : entries.entrySet()) {
+                md.update((e.getKey() + ':' + e.getValue() + '\n').getBytes(StandardCharsets.UTF_8));
+            }
+            return toHex(md.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) sb.append(String.format("%02x", b & 0xff));
+        return sb.toString();
+    }
+}
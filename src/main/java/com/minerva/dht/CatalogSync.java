@@ -0,0 +1,375 @@
+package com.minerva.dht;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.minerva.library.LibraryManager;
+import com.minerva.model.MusicFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mirrors the libraries of trusted nodes (our own seed boxes) into the network
+ * catalog without keyword flooding. Each node serves a {@link CatalogMerkleTree}
+ * over its library metadata on the search port under the {@value #PROTOCOL}
+ * handshake; a syncing node walks the tree against its last mirror of that peer,
+ * descends only into prefixes whose hashes differ, and fetches just the albums
+ * that were added or changed. Traffic in both directions goes through a shared
+ * byte-rate limit.
+ */
+public class CatalogSync {
+    private static final Logger logger = LoggerFactory.getLogger(CatalogSync.class);
+
+    public static final String PROTOCOL = "MINERVASYNC1";
+    private static final long SYNC_INTERVAL_MINUTES = 10;
+    private static final long TREE_MAX_AGE_MS = 60_000;
+    private static final int ALBUMS_PER_REQUEST = 64;
+    private static final int MAX_ITEMS_PER_REQUEST = 512;
+    static final int SOCKET_TIMEOUT_MS = 30_000;
+
+    private final LibraryManager libraryManager;
+    private final NetworkCatalog catalog;
+    private final int listenPort;
+    private final List<InetSocketAddress> trustedNodes;
+    private final Set<InetAddress> trustedAddresses = new HashSet<>();
+    private final AdmissionController.TokenBucket bandwidth;
+    private final Path stateFile;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    // Last mirrored library of each trusted node ("host:port"): torrent hash -> digest
+    private final Map<String, Map<String, String>> mirrors = new ConcurrentHashMap<>();
+    private ScheduledExecutorService scheduler;
+
+    private CatalogMerkleTree servedTree;
+    private Map<String, String> servedDigests = Map.of();
+    private long servedGeneration = -1;
+    private long servedAt;
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    static class SyncRequest {
+        public String op;               // root, nodes, leaves, albums or bye
+        public List<String> prefixes;
+        public List<String> hashes;
+    }
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    static class SyncResponse {
+        public String root;
+        public Integer listenPort;
+        public Map<String, String> nodes;    // child prefix -> hash
+        public Map<String, String> leaves;   // torrent hash -> digest
+        public List<MirroredAlbum> albums;
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    static class MirroredAlbum {
+        public String torrentHash;
+        public String digest;
+        public List<NetworkCatalog.Track> tracks;
+    }
+
+    /**
+     * @param trustedNodes    search endpoints of the nodes we mirror and that may mirror us
+     * @param bytesPerSecond  sync traffic budget, shared by serving and fetching
+     * @param stateFile       where mirror digests are kept between runs, or {@code null}
+     */
+    public CatalogSync(LibraryManager libraryManager, NetworkCatalog catalog, int listenPort,
+                       List<InetSocketAddress> trustedNodes, long bytesPerSecond, Path stateFile) {
+        this.libraryManager = libraryManager;
+        this.catalog = catalog;
+        this.listenPort = listenPort;
+        this.trustedNodes = List.copyOf(trustedNodes);
+        for (InetSocketAddress node : trustedNodes) {
+            if (!node.isUnresolved()) trustedAddresses.add(node.getAddress());
+        }
+        this.bandwidth = new AdmissionController.TokenBucket(bytesPerSecond, bytesPerSecond);
+        this.stateFile = stateFile;
+        loadState();
+    }
+
+    /** Parses a comma-separated list of host:port search endpoints, e.g. from TRUSTED_NODES. */
+    public static List<InetSocketAddress> parseNodes(String spec) {
+        List<InetSocketAddress> nodes = new ArrayList<>();
+        if (spec == null || spec.isBlank()) return nodes;
+        for (String part : spec.split(",")) {
+            String[] hostPort = part.trim().split(":");
+            if (hostPort.length != 2) {
+                logger.warn("Invalid trusted node (should be host:port): {}", part);
+                continue;
+            }
+            try {
+                InetSocketAddress addr = new InetSocketAddress(hostPort[0], Integer.parseInt(hostPort[1]));
+                if (addr.isUnresolved()) {
+                    logger.warn("Unresolved trusted node: {}", part);
+                } else {
+                    nodes.add(addr);
+                }
+            } catch (NumberFormatException e) {
+                logger.warn("Invalid port in trusted node: {}", part);
+            }
+        }
+        return nodes;
+    }
+
+    public void start() {
+        if (trustedNodes.isEmpty()) return;
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "catalog-sync");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(this::syncAll, 1, SYNC_INTERVAL_MINUTES * 60, TimeUnit.SECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(this::stop, "catalog-sync-shutdown"));
+        logger.info("Catalog sync with {} trusted nodes started", trustedNodes.size());
+    }
+
+    public void stop() {
+        if (scheduler != null) scheduler.shutdownNow();
+        saveState();
+    }
+
+    public boolean isTrusted(InetAddress address) {
+        return trustedAddresses.contains(address);
+    }
+
+    // ---------------------------------------------------------------- serving
+
+    /**
+     * Answers sync requests on a connection that has completed the handshake,
+     * until the peer says bye or goes quiet.
+     */
+    void serve(BufferedReader in, OutputStream out) throws IOException, InterruptedException {
+        String line;
+        while ((line = in.readLine()) != null) {
+            SyncRequest request = objectMapper.readValue(line, SyncRequest.class);
+            if (request.op == null || "bye".equals(request.op)) return;
+            byte[] body = objectMapper.writeValueAsBytes(answer(request));
+            bandwidth.acquire(body.length);
+            out.write(body);
+            out.write('\n');
+            out.flush();
+        }
+    }
+
+    private SyncResponse answer(SyncRequest request) {
+        CatalogMerkleTree tree = servedTree();
+        SyncResponse response = new SyncResponse();
+        switch (request.op) {
+            case "root" -> {
+                response.root = tree.root();
+                response.listenPort = listenPort;
+            }
+            case "nodes" -> {
+                response.nodes = new TreeMap<>();
+                for (String prefix : limit(request.prefixes)) {
+                    response.nodes.putAll(tree.children(prefix));
+                }
+            }
+            case "leaves" -> {
+                response.leaves = new TreeMap<>();
+                for (String bucket : limit(request.prefixes)) {
+                    response.leaves.putAll(tree.leaves(bucket));
+                }
+            }
+            case "albums" -> {
+                response.albums = new ArrayList<>();
+                Map<String, String> digests = servedDigests;
+                for (String hash : limit(request.hashes)) {
+                    String digest = digests.get(hash);
+                    if (digest == null) continue;
+                    MirroredAlbum album = new MirroredAlbum();
+                    album.torrentHash = hash;
+                    album.digest = digest;
+                    album.tracks = new ArrayList<>();
+                    for (MusicFile mf : libraryManager.getTracksForTorrent(hash)) {
+                        NetworkCatalog.Track t = new NetworkCatalog.Track();
+                        t.title = mf.getTitle();
+                        t.artist = mf.getArtist();
+                        t.album = mf.getAlbum();
+                        t.genre = mf.getGenre();
+                        t.year = mf.getYear();
+                        album.tracks.add(t);
+                    }
+                    response.albums.add(album);
+                }
+            }
+            default -> logger.debug("Unknown catalog sync op {}", request.op);
+        }
+        return response;
+    }
+
+    private static List<String> limit(List<String> items) {
+        if (items == null) return List.of();
+        return items.size() > MAX_ITEMS_PER_REQUEST ? items.subList(0, MAX_ITEMS_PER_REQUEST) : items;
+    }
+
+    /** The tree over our own library, rebuilt when the library changes or the copy gets old. */
+    private synchronized CatalogMerkleTree servedTree() {
+        long generation = libraryManager.getGeneration();
+        long now = System.currentTimeMillis();
+        if (servedTree == null || generation != servedGeneration || now - servedAt > TREE_MAX_AGE_MS) {
+            servedDigests = libraryManager.getMetadataDigests();
+            servedTree = new CatalogMerkleTree(servedDigests);
+            servedGeneration = generation;
+            servedAt = now;
+        }
+        return servedTree;
+    }
+
+    // ---------------------------------------------------------------- syncing
+
+    private void syncAll() {
+        for (InetSocketAddress node : trustedNodes) {
+            try {
+                syncWith(node);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                logger.warn("Catalog sync with {} failed: {}", node, e.getMessage());
+            }
+        }
+        saveState();
+    }
+
+    void syncWith(InetSocketAddress node) throws IOException, InterruptedException {
+        String host = node.getAddress().getHostAddress();
+        String peerKey = host + ":" + node.getPort();
+        Map<String, String> mirror = mirrors.computeIfAbsent(peerKey, k -> new ConcurrentHashMap<>());
+
+        Socket socket = new Socket();
+        socket.setSoTimeout(SOCKET_TIMEOUT_MS);
+        socket.connect(node, 5000);
+        try (socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             OutputStream out = new BufferedOutputStream(socket.getOutputStream())) {
+            out.write((PROTOCOL + "\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            if (!PROTOCOL.equals(in.readLine())) {
+                logger.warn("{} did not accept catalog sync; is this node in its TRUSTED_NODES?", peerKey);
+                return;
+            }
+
+            SyncResponse root = call(in, out, "root", null, null);
+            String endpoint = host + ":" + root.listenPort;
+            // Albums the catalog has since pruned or evicted must look missing, so they are fetched again
+            int forgotten = mirror.size();
+            mirror.keySet().removeIf(hash -> !catalog.holds(hash, endpoint));
+            forgotten -= mirror.size();
+            if (forgotten > 0) logger.debug("{} albums of {} left the catalog, fetching them again", forgotten, peerKey);
+            CatalogMerkleTree local = new CatalogMerkleTree(mirror);
+            if (Objects.equals(root.root, local.root())) {
+                catalog.touchEndpoint(endpoint, mirror.keySet());
+                call(in, out, "bye", null, null);
+                logger.debug("Catalog of {} unchanged ({} albums)", peerKey, mirror.size());
+                return;
+            }
+
+            // Walk down the tree, keeping only the prefixes whose hashes differ
+            List<String> differing = List.of("");
+            for (int level = 0; level < CatalogMerkleTree.DEPTH && !differing.isEmpty(); level++) {
+                Map<String, String> remote = call(in, out, "nodes", differing, null).nodes;
+                List<String> next = new ArrayList<>();
+                for (String prefix : differing) {
+                    Set<String> children = new TreeSet<>(local.children(prefix).keySet());
+                    for (String child : remote.keySet()) {
+                        if (child.startsWith(prefix)) children.add(child);
+                    }
+                    for (String child : children) {
+                        if (!Objects.equals(remote.get(child), local.hash(child))) next.add(child);
+                    }
+                }
+                differing = next;
+            }
+
+            List<String> toFetch = new ArrayList<>();
+            int removed = 0;
+            Map<String, String> remoteLeaves = differing.isEmpty()
+                    ? Map.of() : call(in, out, "leaves", differing, null).leaves;
+            for (Map.Entry<String, String> leaf : remoteLeaves.entrySet()) {
+                String bucket = leaf.getKey().substring(0, CatalogMerkleTree.DEPTH);
+                if (!leaf.getValue().equals(local.leaves(bucket).get(leaf.getKey()))) {
+                    toFetch.add(leaf.getKey());
+                }
+            }
+            for (String bucket : differing) {
+                for (String hash : local.leaves(bucket).keySet()) {
+                    if (!remoteLeaves.containsKey(hash)) {
+                        mirror.remove(hash);
+                        catalog.removeEndpoint(hash, endpoint);
+                        removed++;
+                    }
+                }
+            }
+
+            for (int i = 0; i < toFetch.size(); i += ALBUMS_PER_REQUEST) {
+                List<String> batch = toFetch.subList(i, Math.min(i + ALBUMS_PER_REQUEST, toFetch.size()));
+                for (MirroredAlbum album : call(in, out, "albums", null, batch).albums) {
+                    if (album.torrentHash == null || album.digest == null || album.tracks == null) continue;
+                    catalog.putMirroredAlbum(album.torrentHash, album.tracks, endpoint);
+                    mirror.put(album.torrentHash, album.digest);
+                }
+            }
+            catalog.touchEndpoint(endpoint, mirror.keySet());
+            call(in, out, "bye", null, null);
+            logger.info("Catalog sync with {}: {} albums fetched, {} removed, {} mirrored",
+                    peerKey, toFetch.size(), removed, mirror.size());
+        }
+    }
+
+    private SyncResponse call(BufferedReader in, OutputStream out, String op,
+                              List<String> prefixes, List<String> hashes) throws IOException, InterruptedException {
+        SyncRequest request = new SyncRequest();
+        request.op = op;
+        request.prefixes = prefixes;
+        request.hashes = hashes;
+        out.write(objectMapper.writeValueAsBytes(request));
+        out.write('\n');
+        out.flush();
+        if ("bye".equals(op)) return null;
+
+        String line = in.readLine();
+        if (line == null) throw new EOFException("Connection closed during " + op);
+        // Charged in bytes on the wire, as the server does
+        byte[] body = line.getBytes(StandardCharsets.UTF_8);
+        bandwidth.acquire(body.length);
+        return objectMapper.readValue(body, SyncResponse.class);
+    }
+
+    // ---------------------------------------------------------------- state
+
+    private void loadState() {
+        if (stateFile == null || !Files.exists(stateFile)) return;
+        try {
+            Map<String, Map<String, String>> loaded = objectMapper.readValue(stateFile.toFile(),
+                    new TypeReference<Map<String, Map<String, String>>>() {});
+            loaded.forEach((peer, digests) -> mirrors.put(peer, new ConcurrentHashMap<>(digests)));
+        } catch (IOException e) {
+            logger.warn("Failed to load catalog sync state, next sync will be a full transfer", e);
+        }
+    }
+
+    private synchronized void saveState() {
+        if (stateFile == null) return;
+        try {
+            objectMapper.writeValue(stateFile.toFile(), mirrors);
+        } catch (IOException e) {
+            logger.warn("Failed to save catalog sync state", e);
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package com.minerva.dht;
 
+import bt.net.ConnectionKey;
 import com.minerva.network.JLibTorrentManager;
+import com.minerva.network.SearchExtensionAgent;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
@@ -10,6 +12,7 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.URI;
 import java.net.http.HttpClient;
@@ -26,23 +29,46 @@ public class DHTKeywordManager {
     private static final Logger logger = LoggerFactory.getLogger(DHTKeywordManager.class);
     private final int localSearchPort;
     private final JLibTorrentManager torrentManager;
+    private final SearchExtensionAgent searchExtension;
     private final String crawlerUrl;
 
     private final Map<String, Set<String>> torrentPeerEndpoints = new ConcurrentHashMap<>();
     private final Set<InetSocketAddress> discoveryPeers = ConcurrentHashMap.newKeySet();
-    private final ScheduledExecutorService crawlerPoller;
+    private final ScheduledExecutorService backgroundTasks;
+    private final NetworkCatalog catalog;
     private final ObjectMapper objectMapper = new ObjectMapper();
 
+    // Bounds on how far other nodes can grow our query fan-out
+    private static final int MAX_DISCOVERY_PEERS = 1000;
+    private static final int MAX_PEERS_PER_RESPONDER = 16;
+
     // Bootstrap file name (in working directory)
     private static final String BOOTSTRAP_FILE = "bootstrap_nodes.txt";
+    private static final String CATALOG_FILE = "minerva_catalog.json";
 
     public DHTKeywordManager(int searchPort, JLibTorrentManager torrentManager) {
-        this(searchPort, torrentManager, null);
+        this(searchPort, torrentManager, (String) null);
+    }
+
+    /**
+     * Creates a manager that only knows the given peers: no peer cache, bootstrap
+     * file, crawler or shutdown hook. {@code torrentManager} may be {@code null}.
+     * Used by the in-process search simulation.
+     */
+    public DHTKeywordManager(int searchPort, JLibTorrentManager torrentManager, Set<InetSocketAddress> seedPeers) {
+        this.localSearchPort = searchPort;
+        this.torrentManager = torrentManager;
+        this.searchExtension = attachSearchExtension(torrentManager);
+        this.crawlerUrl = null;
+        this.backgroundTasks = null;
+        this.catalog = new NetworkCatalog(null);
+        discoveryPeers.addAll(seedPeers);
     }
 
     public DHTKeywordManager(int searchPort, JLibTorrentManager torrentManager, String crawlerUrl) {
         this.localSearchPort = searchPort;
         this.torrentManager = torrentManager;
+        this.searchExtension = attachSearchExtension(torrentManager);
         this.crawlerUrl = crawlerUrl;
 
         // Load cached peers from previous runs
@@ -55,26 +81,64 @@ public class DHTKeywordManager {
         discoveryPeers.addAll(bootstrapNodes);
         logger.info("Loaded {} bootstrap nodes", bootstrapNodes.size());
 
-        // Start polling the crawler if URL is provided
+        this.catalog = new NetworkCatalog(Paths.get(CATALOG_FILE));
+
+        // Start polling the crawler if URL is provided; the same thread ages out
+        // and persists the network catalog
+        this.backgroundTasks = Executors.newSingleThreadScheduledExecutor();
         if (crawlerUrl != null && !crawlerUrl.isEmpty()) {
-            this.crawlerPoller = Executors.newSingleThreadScheduledExecutor();
-            this.crawlerPoller.scheduleAtFixedRate(this::pollCrawler, 0, 30, TimeUnit.SECONDS);
-        } else {
-            this.crawlerPoller = null;
+            this.backgroundTasks.scheduleAtFixedRate(this::pollCrawler, 0, 30, TimeUnit.SECONDS);
         }
+        this.backgroundTasks.scheduleWithFixedDelay(() -> {
+            catalog.prune();
+            catalog.save();
+        }, 1, 1, TimeUnit.MINUTES);
 
-        // Register shutdown hook to save peers
+        // Register shutdown hook to save peers and the catalog
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             logger.info("Saving {} discovery peers to cache", discoveryPeers.size());
             PeerCache.save(discoveryPeers);
-            if (crawlerPoller != null) {
-                crawlerPoller.shutdownNow();
+            catalog.save();
+            if (backgroundTasks != null) {
+                backgroundTasks.shutdownNow();
             }
         }));
 
         logger.info("DHTKeywordManager initialized, search port {}", localSearchPort);
     }
 
+    /** Swaps known Minerva nodes with peers over their BitTorrent connections. */
+    private SearchExtensionAgent attachSearchExtension(JLibTorrentManager torrentManager) {
+        if (torrentManager == null) return null;
+        SearchExtensionAgent agent = torrentManager.getSearchExtension();
+        agent.setNodeGossip(this::encodeNodeSample, this::absorbNodeGossip);
+        return agent;
+    }
+
+    private byte[] encodeNodeSample() {
+        List<String> sample = discoveryPeers.stream()
+                .map(addr -> addr.getAddress().getHostAddress() + ":" + addr.getPort())
+                .collect(Collectors.toCollection(ArrayList::new));
+        Collections.shuffle(sample);
+        try {
+            return objectMapper.writeValueAsBytes(sample.subList(0, Math.min(sample.size(), MAX_PEERS_PER_RESPONDER)));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void absorbNodeGossip(InetAddress from, byte[] body) {
+        // Only Minerva nodes speak the extension, so the sender is a search peer itself
+        addDiscoveryPeer(new InetSocketAddress(from, localSearchPort));
+        try {
+            List<String> nodes = objectMapper.readValue(body, new TypeReference<List<String>>() {});
+            int added = addAdvertisedPeers(nodes, MAX_PEERS_PER_RESPONDER);
+            logger.debug("Learned {} Minerva nodes from {} over BitTorrent", added, from);
+        } catch (IOException e) {
+            logger.debug("Malformed node list from {}: {}", from, e.getMessage());
+        }
+    }
+
     private Set<InetSocketAddress> loadBootstrapNodes() {
         Path path = Paths.get(BOOTSTRAP_FILE);
         if (Files.exists(path)) {
@@ -167,51 +231,45 @@ public class DHTKeywordManager {
         String minervaKeyword = keyword.toLowerCase().endsWith(".minerva")
                 ? keyword.toLowerCase() : keyword.toLowerCase() + ".minerva";
 
-        Set<InetSocketAddress> dhtPeers = torrentManager.getDiscoveryPeers();
         Set<InetSocketAddress> allPeers = new HashSet<>(discoveryPeers);
-        allPeers.addAll(dhtPeers);
+        if (torrentManager != null) {
+            allPeers.addAll(torrentManager.getDiscoveryPeers());
+        }
+
+        // Peers we already hold a BitTorrent connection with are asked over it
+        List<ConnectionKey> connections = searchExtension != null
+                ? searchExtension.getSearchConnections() : List.of();
+        Set<InetAddress> connected = connections.stream()
+                .map(c -> c.getPeer().getInetAddress())
+                .collect(Collectors.toSet());
+        allPeers.removeIf(addr -> connected.contains(addr.getAddress()));
 
-        if (allPeers.isEmpty()) {
+        if (allPeers.isEmpty() && connections.isEmpty()) {
             logger.debug("No discovery peers known yet");
             return Collections.emptyList();
         }
 
-        ExecutorService executor = Executors.newFixedThreadPool(Math.max(4, allPeers.size()));
         List<Future<List<KeywordSearchClient.SearchResult>>> futures = new ArrayList<>();
 
+        if (!connections.isEmpty()) {
+            byte[] request = KeywordSearchClient.encodeRequest(minervaKeyword, KeywordSearchServer.DEFAULT_LIMIT, 0);
+            for (ConnectionKey connection : connections) {
+                String peerHost = connection.getPeer().getInetAddress().getHostAddress();
+                logger.debug("Querying connected peer {} for keyword '{}'", peerHost, minervaKeyword);
+                futures.add(searchExtension.query(connection, request)
+                        .thenApply(body -> absorbResults(peerHost, KeywordSearchClient.parsePage(body).results)));
+            }
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(4, allPeers.size()));
         for (InetSocketAddress addr : allPeers) {
             final String peerHost = addr.getAddress().getHostAddress();
+            final int peerPort = addr.getPort();
             futures.add(executor.submit(() -> {
                 logger.debug("Querying discovered peer {}:{} for keyword '{}'",
-                        peerHost, localSearchPort, minervaKeyword);
-                List<KeywordSearchClient.SearchResult> results =
-                        KeywordSearchClient.queryPeer(peerHost, localSearchPort, minervaKeyword);
-                for (KeywordSearchClient.SearchResult r : results) {
-                    r.peerHost = peerHost;
-                    if (r.torrentHash != null && r.listenPort != null) {
-                        torrentPeerEndpoints
-                                .computeIfAbsent(r.torrentHash,
-                                        k -> ConcurrentHashMap.newKeySet())
-                                .add(peerHost + ":" + r.listenPort);
-                    }
-                    // Add any new peers from the result's peer list
-                    if (r.peers != null) {
-                        for (String peerStr : r.peers) {
-                            String[] parts = peerStr.split(":");
-                            if (parts.length == 2) {
-                                try {
-                                    String host = parts[0];
-                                    int port = Integer.parseInt(parts[1]);
-                                    InetSocketAddress newPeer = new InetSocketAddress(host, port);
-                                    if (!newPeer.isUnresolved()) {
-                                        discoveryPeers.add(newPeer);
-                                    }
-                                } catch (NumberFormatException ignored) {}
-                            }
-                        }
-                    }
-                }
-                return results;
+                        peerHost, peerPort, minervaKeyword);
+                return absorbResults(peerHost,
+                        KeywordSearchClient.queryPeer(peerHost, peerPort, minervaKeyword));
             }));
         }
 
@@ -235,20 +293,106 @@ public class DHTKeywordManager {
             }
         }
         executor.shutdownNow();
-        logger.info("Keyword '{}' search returned {} unique results from {} peers",
-                minervaKeyword, allResults.size(), allPeers.size());
+        logger.info("Keyword '{}' search returned {} unique results from {} peers ({} over BitTorrent)",
+                minervaKeyword, allResults.size(), allPeers.size() + connections.size(), connections.size());
         return allResults;
     }
 
+    /**
+     * Records where each result can be downloaded from and learns new search peers
+     * from the responder's peer list.
+     */
+    private List<KeywordSearchClient.SearchResult> absorbResults(String peerHost,
+                                                                 List<KeywordSearchClient.SearchResult> results) {
+        int injected = 0;
+        for (KeywordSearchClient.SearchResult r : results) {
+            r.peerHost = peerHost;
+            catalog.record(peerHost, r);
+            if (r.torrentHash != null && r.listenPort != null) {
+                torrentPeerEndpoints
+                        .computeIfAbsent(r.torrentHash,
+                                k -> ConcurrentHashMap.newKeySet())
+                        .add(peerHost + ":" + r.listenPort);
+                if (torrentManager != null) {
+                    torrentManager.addSearchPeer(r.torrentHash, peerHost, r.listenPort);
+                }
+            }
+            // Add any new peers from the result's peer list, but let one
+            // responder introduce at most MAX_PEERS_PER_RESPONDER of them
+            if (r.peers != null && injected < MAX_PEERS_PER_RESPONDER) {
+                injected += addAdvertisedPeers(r.peers, MAX_PEERS_PER_RESPONDER - injected);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Adds up to {@code budget} previously unknown peers from a list of "host:port" strings.
+     *
+     * @return the number of peers added
+     */
+    private int addAdvertisedPeers(List<String> peerStrings, int budget) {
+        int added = 0;
+        for (String peerStr : peerStrings) {
+            if (added >= budget) break;
+            String[] parts = peerStr.split(":");
+            if (parts.length == 2) {
+                try {
+                    String host = parts[0];
+                    int port = Integer.parseInt(parts[1]);
+                    InetSocketAddress newPeer = new InetSocketAddress(host, port);
+                    if (!newPeer.isUnresolved() && addDiscoveryPeer(newPeer)) {
+                        added++;
+                    }
+                } catch (NumberFormatException ignored) {}
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Answers a keyword from the network catalog alone, without contacting peers.
+     * Results have the same shape as those of {@link #searchKeyword(String)}.
+     */
+    public List<KeywordSearchClient.SearchResult> searchCatalog(String keyword) {
+        return catalog.search(keyword);
+    }
+
+    public NetworkCatalog getCatalog() {
+        return catalog;
+    }
+
     public Set<String> getPeersForTorrent(String torrentHash) {
-        return torrentPeerEndpoints.getOrDefault(torrentHash, Collections.emptySet());
+        Set<String> endpoints = new HashSet<>(catalog.endpoints(torrentHash));
+        endpoints.addAll(torrentPeerEndpoints.getOrDefault(torrentHash, Collections.emptySet()));
+        return endpoints;
+    }
+
+    /** Hands every endpoint known to hold {@code torrentHash} to the torrent session. */
+    public void injectKnownPeers(String torrentHash) {
+        if (torrentManager == null) return;
+        for (String endpoint : getPeersForTorrent(torrentHash)) {
+            int colon = endpoint.lastIndexOf(':');
+            try {
+                torrentManager.addSearchPeer(torrentHash, endpoint.substring(0, colon),
+                        Integer.parseInt(endpoint.substring(colon + 1)));
+            } catch (RuntimeException ignored) {}
+        }
     }
 
     public Set<InetSocketAddress> getDiscoveryPeers() {
         return Collections.unmodifiableSet(discoveryPeers);
     }
 
-    public void addDiscoveryPeer(InetSocketAddress addr) {
-        discoveryPeers.add(addr);
+    /**
+     * Adds a search peer unless the peer set is already at its cap.
+     *
+     * @return true if the peer was not known before
+     */
+    public boolean addDiscoveryPeer(InetSocketAddress addr) {
+        if (discoveryPeers.size() >= MAX_DISCOVERY_PEERS && !discoveryPeers.contains(addr)) {
+            return false;
+        }
+        return discoveryPeers.add(addr);
     }
 }
\ No newline at end of file
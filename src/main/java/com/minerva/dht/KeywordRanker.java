@@ -0,0 +1,72 @@
+package com.minerva.dht;
+
+import com.minerva.model.MusicFile;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Scores local tracks against a search keyword so the search server can
+ * return the best matches first and cut the response at a limit.
+ */
+public class KeywordRanker {
+    private static final int TITLE_WEIGHT = 4;
+    private static final int ARTIST_WEIGHT = 3;
+    private static final int ALBUM_WEIGHT = 2;
+    private static final int GENRE_WEIGHT = 1;
+
+    private static final int EXACT_MATCH = 4;
+    private static final int PREFIX_MATCH = 2;
+    private static final int SUBSTRING_MATCH = 1;
+
+    public static class Ranked {
+        public final MusicFile track;
+        public final int score;
+
+        Ranked(MusicFile track, int score) {
+            this.track = track;
+            this.score = score;
+        }
+    }
+
+    public static int score(MusicFile track, String keyword) {
+        String kw = keyword.toLowerCase();
+        return fieldScore(track.getTitle(), kw) * TITLE_WEIGHT
+                + fieldScore(track.getArtist(), kw) * ARTIST_WEIGHT
+                + fieldScore(track.getAlbum(), kw) * ALBUM_WEIGHT
+                + fieldScore(track.getGenre(), kw) * GENRE_WEIGHT;
+    }
+
+    /**
+     * Ranks the given tracks by descending score. Ties are broken by artist,
+     * album and title so that paging over an unchanged library is stable.
+     */
+    public static List<Ranked> rank(List<MusicFile> tracks, String keyword) {
+        List<Ranked> ranked = new ArrayList<>(tracks.size());
+        for (MusicFile t : tracks) {
+            int s = score(t, keyword);
+            if (s > 0) ranked.add(new Ranked(t, s));
+        }
+        ranked.sort(Comparator.comparingInt((Ranked r) -> r.score).reversed()
+                .thenComparing(r -> nullToEmpty(r.track.getArtist()))
+                .thenComparing(r -> nullToEmpty(r.track.getAlbum()))
+                .thenComparing(r -> nullToEmpty(r.track.getTitle())));
+        return ranked;
+    }
+
+    private static int fieldScore(String value, String kw) {
+        if (value == null || kw.isEmpty()) return 0;
+        String v = value.toLowerCase();
+        if (v.equals(kw)) return EXACT_MATCH;
+        if (v.startsWith(kw)) return PREFIX_MATCH;
+        for (String word : v.split("\\s+")) {
+            if (word.startsWith(kw)) return PREFIX_MATCH;
+        }
+        return v.contains(kw) ? SUBSTRING_MATCH : 0;
+    }
+
+    private static String nullToEmpty(String s) {
+        return s != null ? s : "";
+    }
+}
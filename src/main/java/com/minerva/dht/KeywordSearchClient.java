@@ -1,5 +1,6 @@
 package com.minerva.dht;
 
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
@@ -9,14 +10,42 @@ import java.io.*;
 import java.net.*;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 
 public class KeywordSearchClient {
     private static final Logger logger = LoggerFactory.getLogger(KeywordSearchClient.class);
     private static final ObjectMapper objectMapper = new ObjectMapper();
 
+    // Per-attempt reply timeouts for the UDP fast path: the first send, then one retransmit
+    private static final int[] UDP_ATTEMPT_TIMEOUTS_MS = {250, 500};
+    // A lost datagram is normal on a lossy link, so only a run of unanswered queries
+    // sends a host to TCP, and only briefly; a closed UDP port does so for longer
+    private static final int UDP_SILENT_STRIKES = 3;
+    private static final long UDP_SILENT_BACKOFF_MS = 60 * 1000;
+    private static final long UDP_CLOSED_BACKOFF_MS = 10 * 60 * 1000;
+    private static final Map<String, Long> udpSilentUntil = new ConcurrentHashMap<>();
+    private static final Map<String, Integer> udpMisses = new ConcurrentHashMap<>();
+
     public static List<SearchResult> queryPeer(String host, int port, String keyword) {
+        return queryPeer(host, port, keyword, KeywordSearchServer.DEFAULT_LIMIT, 0).results;
+    }
+
+    /**
+     * Asks a peer for one ranked page of matches. The query is first sent as a single
+     * UDP datagram; if the reply is truncated or never arrives it is repeated over TCP.
+     * Peers that only speak MINERVA1 close the connection on the MINERVA2 handshake;
+     * for those the query is retried with the legacy protocol and the page is cut locally.
+     */
+    public static SearchPage queryPeer(String host, int port, String keyword, int limit, int offset) {
         String minervaKeyword = keyword.toLowerCase().endsWith(".minerva") ? keyword.toLowerCase() : keyword.toLowerCase() + ".minerva";
 
+        Long silentUntil = udpSilentUntil.get(host);
+        if (silentUntil == null || silentUntil < System.currentTimeMillis()) {
+            SearchPage page = queryPeerUdp(host, port, minervaKeyword, limit, offset);
+            if (page != null) return page;
+        }
+
         try {
             logger.debug("Connecting to {}:{} for keyword '{}'", host, port, minervaKeyword);
             Socket socket = new Socket();
@@ -26,26 +55,180 @@ public class KeywordSearchClient {
                  PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
                  BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8))) {
                 // Minerva handshake
-                out.println("MINERVA1");
+                out.println(KeywordSearchServer.PROTOCOL_V2);
+                String handshakeResp = in.readLine();
+                if (KeywordSearchServer.BUSY.equals(handshakeResp)) {
+                    logger.debug("Peer at {}:{} is busy, skipping", host, port);
+                    return SearchPage.empty(offset);
+                }
+                if (!KeywordSearchServer.PROTOCOL_V2.equals(handshakeResp)) {
+                    logger.debug("Peer at {}:{} does not speak {}, falling back", host, port, KeywordSearchServer.PROTOCOL_V2);
+                    return queryPeerLegacy(host, port, minervaKeyword, limit, offset);
+                }
+                KeywordSearchServer.SearchRequest request = new KeywordSearchServer.SearchRequest();
+                request.keyword = minervaKeyword;
+                request.limit = limit;
+                request.offset = offset;
+                out.println(objectMapper.writeValueAsString(request));
+                String response = in.readLine();
+                if (response == null) {
+                    logger.debug("Empty response from {}:{}", host, port);
+                    return SearchPage.empty(offset);
+                }
+                return objectMapper.readValue(response, SearchPage.class).shareOwnPeers();
+            }
+        } catch (Exception e) {
+            logger.debug("Failed to connect to {}:{} - {}", host, port, e.getMessage());
+        }
+        return SearchPage.empty(offset);
+    }
+
+    /**
+     * @return the page, an empty page if the peer is busy, or {@code null} if the
+     *         query has to be repeated over TCP
+     */
+    private static SearchPage queryPeerUdp(String host, int port, String minervaKeyword, int limit, int offset) {
+        long id = ThreadLocalRandom.current().nextLong();
+        try (DatagramSocket socket = new DatagramSocket()) {
+            socket.connect(new InetSocketAddress(host, port));
+
+            KeywordSearchServer.SearchRequest request = new KeywordSearchServer.SearchRequest();
+            request.id = id;
+            request.keyword = minervaKeyword;
+            request.limit = limit;
+            request.offset = offset;
+            byte[] encoded = (KeywordSearchServer.PROTOCOL_UDP + "\n" + objectMapper.writeValueAsString(request))
+                    .getBytes(StandardCharsets.UTF_8);
+            byte[] payload = Arrays.copyOf(encoded, Math.max(encoded.length, KeywordSearchServer.MIN_UDP_REQUEST));
+            Arrays.fill(payload, encoded.length, payload.length, (byte) ' ');
+
+            String expectedPrefix = KeywordSearchServer.PROTOCOL_UDP + " " + id + " ";
+            byte[] buf = new byte[KeywordSearchServer.MAX_DATAGRAM];
+            for (int timeout : UDP_ATTEMPT_TIMEOUTS_MS) {
+                socket.send(new DatagramPacket(payload, payload.length));
+                long deadline = System.currentTimeMillis() + timeout;
+                long remaining;
+                while ((remaining = deadline - System.currentTimeMillis()) > 0) {
+                    socket.setSoTimeout((int) remaining);
+                    DatagramPacket reply = new DatagramPacket(buf, buf.length);
+                    try {
+                        socket.receive(reply);
+                    } catch (SocketTimeoutException e) {
+                        break;
+                    }
+                    String text = new String(reply.getData(), 0, reply.getLength(), StandardCharsets.UTF_8);
+                    int nl = text.indexOf('\n');
+                    if (nl < 0 || !text.startsWith(expectedPrefix)) continue;   // stale or foreign reply
+                    String status = text.substring(expectedPrefix.length(), nl);
+                    udpMisses.remove(host);
+                    if (KeywordSearchServer.UDP_OK.equals(status)) {
+                        return objectMapper.readValue(text.substring(nl + 1), SearchPage.class).shareOwnPeers();
+                    }
+                    if (KeywordSearchServer.BUSY.equals(status)) {
+                        logger.debug("Peer at {}:{} is busy, skipping", host, port);
+                        return SearchPage.empty(offset);
+                    }
+                    logger.debug("UDP reply from {}:{} truncated, using TCP", host, port);
+                    return null;
+                }
+            }
+            if (udpMisses.merge(host, 1, Integer::sum) >= UDP_SILENT_STRIKES) {
+                udpMisses.remove(host);
+                udpSilentUntil.put(host, System.currentTimeMillis() + UDP_SILENT_BACKOFF_MS);
+            }
+            logger.debug("No UDP reply from {}:{}, using TCP", host, port);
+        } catch (PortUnreachableException e) {
+            udpMisses.remove(host);
+            udpSilentUntil.put(host, System.currentTimeMillis() + UDP_CLOSED_BACKOFF_MS);
+            logger.debug("UDP port closed on {}:{}, using TCP", host, port);
+        } catch (IOException e) {
+            logger.debug("UDP query to {}:{} failed - {}", host, port, e.getMessage());
+        }
+        return null;
+    }
+
+    private static SearchPage queryPeerLegacy(String host, int port, String minervaKeyword, int limit, int offset) {
+        try {
+            Socket socket = new Socket();
+            socket.setSoTimeout(3000);
+            socket.connect(new InetSocketAddress(host, port), 2000);
+            try (socket;
+                 PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
+                 BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8))) {
+                out.println(KeywordSearchServer.PROTOCOL_V1);
                 String handshakeResp = in.readLine();
-                if (!"MINERVA1".equals(handshakeResp)) {
+                if (!KeywordSearchServer.PROTOCOL_V1.equals(handshakeResp)) {
                     logger.debug("Peer at {}:{} did not respond to handshake, closing.", host, port);
-                    return Collections.emptyList();
+                    return SearchPage.empty(offset);
                 }
                 out.println(minervaKeyword);
                 String response = in.readLine();
                 if (response == null) {
                     logger.debug("Empty response from {}:{}", host, port);
-                    return Collections.emptyList();
+                    return SearchPage.empty(offset);
                 }
-                return objectMapper.readValue(response, new TypeReference<List<SearchResult>>() {});
+                List<SearchResult> all = objectMapper.readValue(response, new TypeReference<List<SearchResult>>() {});
+                SearchPage page = new SearchPage();
+                page.total = all.size();
+                page.offset = offset;
+                int from = Math.min(Math.max(0, offset), all.size());
+                page.results = new ArrayList<>(all.subList(from, Math.min(from + Math.max(0, limit), all.size())));
+                return page;
             }
         } catch (Exception e) {
-            logger.debug("Failed to connect to {}:{} - {}", host, port, e.getMessage());
+            logger.debug("Legacy query to {}:{} failed - {}", host, port, e.getMessage());
+        }
+        return SearchPage.empty(offset);
+    }
+
+    /** Encodes a MINERVA2 request body, as sent over the search extension. */
+    static byte[] encodeRequest(String minervaKeyword, int limit, int offset) {
+        KeywordSearchServer.SearchRequest request = new KeywordSearchServer.SearchRequest();
+        request.keyword = minervaKeyword;
+        request.limit = limit;
+        request.offset = offset;
+        try {
+            return objectMapper.writeValueAsBytes(request);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** Decodes a MINERVA2 response body; malformed bodies read as an empty page. */
+    static SearchPage parsePage(byte[] body) {
+        try {
+            return objectMapper.readValue(body, SearchPage.class).shareOwnPeers();
+        } catch (IOException e) {
+            logger.debug("Malformed search response: {}", e.getMessage());
+            return SearchPage.empty(0);
+        }
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class SearchPage {
+        public int total;                       // total matches on the peer, for paging
+        public int offset;
+        public List<SearchResult> results = new ArrayList<>();
+        public List<String> peers;              // other Minerva nodes the peer knows, sent once per page
+
+        /** Copies the page-level peer list into each result, where DHTKeywordManager reads it. */
+        SearchPage shareOwnPeers() {
+            if (peers != null) {
+                for (SearchResult r : results) {
+                    if (r.peers == null) r.peers = peers;
+                }
+            }
+            return this;
+        }
+
+        static SearchPage empty(int offset) {
+            SearchPage page = new SearchPage();
+            page.offset = offset;
+            return page;
         }
-        return Collections.emptyList();
     }
 
+    @JsonIgnoreProperties(ignoreUnknown = true)
     public static class SearchResult {
         public String title;
         public String artist;
@@ -1,34 +1,80 @@
 package com.minerva.dht;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.minerva.library.LibraryManager;
-import com.minerva.model.MusicFile;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
-import java.net.InetSocketAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.net.*;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 public class KeywordSearchServer {
     private static final Logger logger = LoggerFactory.getLogger(KeywordSearchServer.class);
+    static final String PROTOCOL_V1 = "MINERVA1";
+    static final String PROTOCOL_V2 = "MINERVA2";
+    static final int DEFAULT_LIMIT = 50;
+    static final int MAX_LIMIT = 200;
+    private static final int MAX_ADVERTISED_PEERS = 16;
+    private static final int RESPONSE_CACHE_ENTRIES = 256;
+    private static final long RESPONSE_CACHE_TTL_MS = 30_000;
+    static final String BUSY = "BUSY";
+    // UDP fast path: one request datagram, one reply datagram. Requests must be padded
+    // to MIN_UDP_REQUEST bytes so a reply can never be much larger than what was sent.
+    static final String PROTOCOL_UDP = "MINERVA2U";
+    static final int MAX_DATAGRAM = 1400;
+    static final int MIN_UDP_REQUEST = 512;
+    static final String UDP_OK = "OK";
+    static final String UDP_TRUNCATED = "TRUNC";
+    // Admitted UDP queries run here; when it is full further datagrams are dropped
+    private static final int UDP_WORKERS = 4;
+    private static final int UDP_QUEUE = 64;
+    // Enough of the request to address a BUSY reply without parsing the JSON
+    private static final Pattern REQUEST_ID = Pattern.compile("\"id\"\\s*:\\s*(-?\\d{1,19})");
+    private static final double PER_IP_QPS = 5;
+    private static final double PER_IP_BURST = 10;
+    private static final double GLOBAL_QPS = 200;
+    private static final int READ_TIMEOUT_MS = 5000;
     private final int port;
+    private final InetAddress bindAddress;
     private final int listenPort;
     private final LibraryManager libraryManager;
     private final DHTKeywordManager dhtKeywordManager;
     private final ObjectMapper objectMapper = new ObjectMapper();
+    private final SearchResponseCache responseCache = new SearchResponseCache(RESPONSE_CACHE_ENTRIES, RESPONSE_CACHE_TTL_MS);
+    private final AdmissionController admission = new AdmissionController(PER_IP_QPS, PER_IP_BURST, GLOBAL_QPS);
     private ServerSocket serverSocket;
+    private DatagramSocket datagramSocket;
     private ExecutorService executor;
+    private ExecutorService udpExecutor;
     private volatile boolean running = false;
+    private volatile CatalogSync catalogSync;
+
+    private final AtomicLong queriesServed = new AtomicLong();
+    private final AtomicLong queriesRejected = new AtomicLong();
 
     public KeywordSearchServer(int port, LibraryManager libraryManager, int listenPort, DHTKeywordManager dhtKeywordManager) {
+        this(null, port, libraryManager, listenPort, dhtKeywordManager);
+    }
+
+    /**
+     * @param bindAddress local address to listen on, or {@code null} for all interfaces
+     */
+    public KeywordSearchServer(InetAddress bindAddress, int port, LibraryManager libraryManager, int listenPort, DHTKeywordManager dhtKeywordManager) {
+        this.bindAddress = bindAddress;
         this.port = port;
         this.libraryManager = libraryManager;
         this.listenPort = listenPort;
@@ -36,23 +82,39 @@ public class KeywordSearchServer {
     }
 
     public void start() throws IOException {
-        serverSocket = new ServerSocket(port);
+        serverSocket = new ServerSocket(port, 50, bindAddress);
         executor = Executors.newCachedThreadPool();
         running = true;
         logger.info("Keyword search server started on port {}", port);
         new Thread(this::acceptConnections).start();
+
+        try {
+            datagramSocket = new DatagramSocket(new InetSocketAddress(bindAddress, port));
+            udpExecutor = new ThreadPoolExecutor(UDP_WORKERS, UDP_WORKERS, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(UDP_QUEUE), new ThreadPoolExecutor.DiscardPolicy());
+            new Thread(this::receiveDatagrams, "KeywordSearchUdp-" + port).start();
+            logger.info("Keyword search UDP fast path listening on port {}", port);
+        } catch (SocketException e) {
+            logger.warn("UDP search port {} unavailable, serving TCP only: {}", port, e.getMessage());
+        }
     }
 
     public void stop() {
         running = false;
         try { if (serverSocket != null) serverSocket.close(); } catch (IOException ignored) {}
+        if (datagramSocket != null) datagramSocket.close();
         if (executor != null) executor.shutdown();
+        if (udpExecutor != null) udpExecutor.shutdown();
     }
 
     private void acceptConnections() {
         while (running) {
             try {
                 Socket client = serverSocket.accept();
+                if (!admission.tryAdmit(client.getInetAddress())) {
+                    reject(client);
+                    continue;
+                }
                 executor.submit(() -> handleConnection(client));
             } catch (IOException e) {
                 if (running) logger.error("Error accepting connection", e);
@@ -60,27 +122,169 @@ public class KeywordSearchServer {
         }
     }
 
+    private void receiveDatagrams() {
+        byte[] buf = new byte[MAX_DATAGRAM];
+        while (running) {
+            try {
+                DatagramPacket packet = new DatagramPacket(buf, buf.length);
+                datagramSocket.receive(packet);
+                if (packet.getLength() < MIN_UDP_REQUEST) continue;
+                InetSocketAddress sender = (InetSocketAddress) packet.getSocketAddress();
+                String text = new String(packet.getData(), 0, packet.getLength(), StandardCharsets.UTF_8);
+                if (!text.startsWith(PROTOCOL_UDP + "\n")) continue;
+                // Same as TCP: turn a flood away here, before any thread or parsing is spent on it
+                if (!admission.tryAdmit(sender.getAddress())) {
+                    rejectDatagram(sender, text);
+                    continue;
+                }
+                udpExecutor.execute(() -> handleDatagram(sender, text));
+            } catch (IOException e) {
+                if (running) logger.error("Error receiving search datagram", e);
+            }
+        }
+    }
+
+    /**
+     * Answers one UDP query. The reply header echoes the request id so the client
+     * can drop replies to earlier retransmits; results that do not fit in one
+     * datagram are answered with TRUNC and the client repeats the query over TCP.
+     */
+    private void handleDatagram(InetSocketAddress sender, String text) {
+        try {
+            int nl = text.indexOf('\n');
+            if (nl < 0 || !PROTOCOL_UDP.equals(text.substring(0, nl))) return;
+            SearchRequest request = objectMapper.readValue(text.substring(nl + 1).trim(), SearchRequest.class);
+            if (request.id == null) return;
+            String header = PROTOCOL_UDP + " " + request.id + " ";
+            if (request.keyword == null || !request.keyword.toLowerCase().endsWith(".minerva")) return;
+
+            byte[] body = encodedResponse(PROTOCOL_V2, request.keyword,
+                    request.limit != null ? request.limit : DEFAULT_LIMIT,
+                    request.offset != null ? request.offset : 0);
+            byte[] okHeader = (header + UDP_OK + "\n").getBytes(StandardCharsets.UTF_8);
+            if (okHeader.length + body.length <= MAX_DATAGRAM) {
+                byte[] reply = new byte[okHeader.length + body.length];
+                System.arraycopy(okHeader, 0, reply, 0, okHeader.length);
+                System.arraycopy(body, 0, reply, okHeader.length, body.length);
+                sendDatagram(sender, reply);
+                queriesServed.incrementAndGet();
+            } else {
+                // The client asks again over TCP, which is where the query is charged and counted
+                admission.refund(sender.getAddress());
+                sendDatagram(sender, (header + UDP_TRUNCATED + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+        } catch (Exception e) {
+            logger.debug("Bad search datagram from {}: {}", sender, e.getMessage());
+        }
+    }
+
+    /**
+     * Answers a MINERVA2 request that arrived over a BitTorrent connection through
+     * the search extension. Rejected or malformed queries get an empty page so the
+     * requester does not wait for its timeout.
+     */
+    public byte[] answerExtensionQuery(InetAddress from, byte[] requestBody) {
+        try {
+            SearchRequest request = objectMapper.readValue(requestBody, SearchRequest.class);
+            if (!admission.tryAdmit(from)) {
+                queriesRejected.incrementAndGet();
+                return objectMapper.writeValueAsBytes(new SearchResponse(0, 0, List.of(), List.of()));
+            }
+            if (request.keyword == null || !request.keyword.toLowerCase().endsWith(".minerva")) {
+                return objectMapper.writeValueAsBytes(new SearchResponse(0, 0, List.of(), List.of()));
+            }
+            byte[] body = encodedResponse(PROTOCOL_V2, request.keyword,
+                    request.limit != null ? request.limit : DEFAULT_LIMIT,
+                    request.offset != null ? request.offset : 0);
+            queriesServed.incrementAndGet();
+            return body;
+        } catch (IOException e) {
+            logger.debug("Bad extension search request from {}: {}", from, e.getMessage());
+            return null;
+        }
+    }
+
+    /** Answers BUSY on the receive thread; a request without a readable id is just dropped. */
+    private void rejectDatagram(InetSocketAddress sender, String text) {
+        queriesRejected.incrementAndGet();
+        Matcher id = REQUEST_ID.matcher(text);
+        if (!id.find()) return;
+        try {
+            sendDatagram(sender, (PROTOCOL_UDP + " " + id.group(1) + " " + BUSY + "\n").getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            logger.debug("Could not send BUSY to {}: {}", sender, e.getMessage());
+        }
+    }
+
+    private void sendDatagram(InetSocketAddress target, byte[] data) throws IOException {
+        datagramSocket.send(new DatagramPacket(data, data.length, target));
+    }
+
+    /**
+     * Turns a connection away on the accept thread without reading from it. The
+     * BUSY line tells MINERVA2 clients not to retry with the legacy handshake.
+     */
+    private void reject(Socket socket) {
+        queriesRejected.incrementAndGet();
+        try (socket) {
+            socket.getOutputStream().write((BUSY + "\n").getBytes(StandardCharsets.UTF_8));
+        } catch (IOException ignored) {
+        }
+        logger.debug("Rejected search connection from {}", socket.getInetAddress());
+    }
+
     private void handleConnection(Socket socket) {
+        try {
+            socket.setSoTimeout(READ_TIMEOUT_MS);
+        } catch (IOException e) {
+            logger.debug("Could not set read timeout: {}", e.getMessage());
+        }
         try (socket;
              BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
-             PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true)) {
+             OutputStream out = new BufferedOutputStream(socket.getOutputStream())) {
 
-            // Minerva handshake
+            // Minerva handshake. MINERVA1 peers send a bare keyword and get a JSON array back,
+            // MINERVA2 peers send a SearchRequest and get a paged SearchResponse.
             String handshake = in.readLine();
-            if (!"MINERVA1".equals(handshake)) {
+            if (CatalogSync.PROTOCOL.equals(handshake)) {
+                CatalogSync sync = catalogSync;
+                if (sync == null || !sync.isTrusted(socket.getInetAddress())) {
+                    logger.debug("Refused catalog sync from {}", socket.getInetAddress());
+                    return;
+                }
+                socket.setSoTimeout(CatalogSync.SOCKET_TIMEOUT_MS);
+                writeLine(out, handshake.getBytes(StandardCharsets.UTF_8));
+                sync.serve(in, out);
+                return;
+            }
+            boolean paged = PROTOCOL_V2.equals(handshake);
+            if (!paged && !PROTOCOL_V1.equals(handshake)) {
                 logger.debug("Received non-Minerva handshake: {}", handshake);
                 return;
             }
-            out.println("MINERVA1");
+            writeLine(out, handshake.getBytes(StandardCharsets.UTF_8));
+
+            String line = in.readLine();
+            if (line == null) return;
 
-            String keyword = in.readLine();
-            if (keyword == null) return;
-            logger.debug("Received keyword query: {}", keyword);
+            String keyword;
+            int limit = DEFAULT_LIMIT;
+            int offset = 0;
+            if (paged) {
+                SearchRequest request = objectMapper.readValue(line, SearchRequest.class);
+                keyword = request.keyword;
+                if (request.limit != null) limit = request.limit;
+                if (request.offset != null) offset = request.offset;
+            } else {
+                keyword = line;
+            }
+            logger.debug("Received keyword query: {} (limit {}, offset {})", keyword, limit, offset);
 
             // Only respond to queries with .minerva suffix
-            if (!keyword.toLowerCase().endsWith(".minerva")) {
+            if (keyword == null || !keyword.toLowerCase().endsWith(".minerva")) {
                 logger.debug("Ignoring non-minerva keyword query: {}", keyword);
-                out.println("[]");
+                writeLine(out, paged ? objectMapper.writeValueAsBytes(new SearchResponse(0, 0, List.of(), List.of()))
+                                     : "[]".getBytes(StandardCharsets.UTF_8));
                 return;
             }
 
@@ -93,35 +297,129 @@ public class KeywordSearchServer {
             }
             // ------------------------------------------------------
 
-            // Remove .minerva suffix for local search
-            String searchKeyword = keyword.substring(0, keyword.length() - ".minerva".length());
-            List<MusicFile> tracks = libraryManager.searchLocal(searchKeyword);
-
-            // Get list of known peers from DHTKeywordManager (convert to "host:port" strings)
-            Set<String> peerStrings = dhtKeywordManager.getDiscoveryPeers().stream()
-                    .map(addr -> addr.getAddress().getHostAddress() + ":" + addr.getPort())
-                    .collect(Collectors.toSet());
-
-            List<SearchResult> results = tracks.stream()
-                    .map(t -> new SearchResult(
-                            t.getTitle(),
-                            t.getArtist(),
-                            t.getAlbum(),
-                            t.getTorrentHash(),
-                            t.getGenre(),
-                            t.getYear(),
-                            listenPort,
-                            peerStrings))
-                    .toList();
-            String json = objectMapper.writeValueAsString(results);
-            out.println(json);
+            writeLine(out, encodedResponse(handshake, keyword, limit, offset));
+            queriesServed.incrementAndGet();
 
         } catch (Exception e) {
             logger.error("Error handling keyword query", e);
         }
     }
 
-    private static class SearchResult {
+    /** Serves catalog sync to trusted nodes on this port; {@code null} turns it off. */
+    public void setCatalogSync(CatalogSync catalogSync) {
+        this.catalogSync = catalogSync;
+    }
+
+    public long getQueriesServed() {
+        return queriesServed.get();
+    }
+
+    public long getQueriesRejected() {
+        return queriesRejected.get();
+    }
+
+    /**
+     * Returns the wire encoding of a search response, served from the hot-keyword
+     * cache when the same query was answered against the current library generation.
+     */
+    byte[] encodedResponse(String protocol, String keyword, int limit, int offset) throws IOException {
+        limit = Math.max(0, Math.min(limit, MAX_LIMIT));
+        offset = Math.max(0, offset);
+        long generation = libraryManager.getGeneration();
+        String key = SearchResponseCache.key(protocol, keyword, limit, offset);
+
+        byte[] cached = responseCache.get(key, generation);
+        if (cached != null) {
+            logger.debug("Serving cached response for {}", key);
+            return cached;
+        }
+
+        SearchResponse response = search(keyword, limit, offset);
+        byte[] encoded = objectMapper.writeValueAsBytes(PROTOCOL_V1.equals(protocol) ? legacyResults(response) : response);
+        responseCache.put(key, generation, encoded);
+        return encoded;
+    }
+
+    private static void writeLine(OutputStream out, byte[] bytes) throws IOException {
+        out.write(bytes);
+        out.write('\n');
+        out.flush();
+    }
+
+    /**
+     * Runs a local search for a {@code .minerva} keyword and returns the ranked
+     * window {@code [offset, offset + limit)} together with the total match count.
+     */
+    SearchResponse search(String keyword, int limit, int offset) {
+        limit = Math.max(0, Math.min(limit, MAX_LIMIT));
+        offset = Math.max(0, offset);
+
+        // Remove .minerva suffix for local search
+        String searchKeyword = keyword.substring(0, keyword.length() - ".minerva".length());
+        List<KeywordRanker.Ranked> ranked = KeywordRanker.rank(libraryManager.searchLocal(searchKeyword), searchKeyword);
+
+        int from = Math.min(offset, ranked.size());
+        int to = Math.min(from + limit, ranked.size());
+        List<KeywordRanker.Ranked> page = ranked.subList(from, to);
+        if (page.isEmpty()) {
+            return new SearchResponse(ranked.size(), offset, List.of(), List.of());
+        }
+
+        // Advertise a random sample of known peers (as "host:port" strings) once per
+        // response; receivers accept only a handful from each responder anyway.
+        List<String> peerStrings = dhtKeywordManager.getDiscoveryPeers().stream()
+                .map(addr -> addr.getAddress().getHostAddress() + ":" + addr.getPort())
+                .collect(Collectors.toCollection(ArrayList::new));
+        Collections.shuffle(peerStrings);
+        if (peerStrings.size() > MAX_ADVERTISED_PEERS) {
+            peerStrings = new ArrayList<>(peerStrings.subList(0, MAX_ADVERTISED_PEERS));
+        }
+
+        List<SearchResult> results = page.stream()
+                .map(r -> new SearchResult(
+                        r.track.getTitle(),
+                        r.track.getArtist(),
+                        r.track.getAlbum(),
+                        r.track.getTorrentHash(),
+                        r.track.getGenre(),
+                        r.track.getYear(),
+                        listenPort,
+                        null))
+                .toList();
+        return new SearchResponse(ranked.size(), offset, results, peerStrings);
+    }
+
+    /** MINERVA1 clients expect the peer list repeated inside every result. */
+    private static List<SearchResult> legacyResults(SearchResponse response) {
+        return response.results.stream()
+                .map(r -> new SearchResult(r.title, r.artist, r.album, r.torrentHash, r.genre, r.year,
+                        r.listenPort, response.peers))
+                .toList();
+    }
+
+    static class SearchRequest {
+        public Long id;          // UDP only, echoed in the reply header
+        public String keyword;
+        public Integer limit;
+        public Integer offset;
+    }
+
+    static class SearchResponse {
+        public int total;
+        public int offset;
+        public List<SearchResult> results;
+        public List<String> peers;
+
+        SearchResponse(int total, int offset, List<SearchResult> results, List<String> peers) {
+            this.total = total;
+            this.offset = offset;
+            this.results = results;
+            this.peers = peers;
+        }
+    }
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    static class SearchResult {
         public String title;
         public String artist;
         public String album;
@@ -131,7 +429,7 @@ public class KeywordSearchServer {
         public Integer listenPort;
         public List<String> peers;
 
-        public SearchResult(String title, String artist, String album, String torrentHash, String genre, Integer year, int listenPort, Set<String> peers) {
+        public SearchResult(String title, String artist, String album, String torrentHash, String genre, Integer year, int listenPort, List<String> peers) {
             this.title = title;
             this.artist = artist;
             this.album = album;
@@ -139,7 +437,7 @@ public class KeywordSearchServer {
             this.genre = genre;
             this.year = year;
             this.listenPort = listenPort;
-            this.peers = List.copyOf(peers);
+            this.peers = peers;
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,259 @@
+package com.minerva.dht;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.minerva.model.MusicFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Local index of the albums other nodes have returned from keyword searches,
+ * keyed by torrent hash. Each entry keeps its tracks and the BitTorrent endpoints
+ * that reported it, with the time each endpoint was last seen, so a search can be
+ * answered before any peer replies. Endpoints not seen for {@link #ENDPOINT_TTL_MS}
+ * are dropped, and an album without endpoints is dropped with them.
+ */
+public class NetworkCatalog {
+    private static final Logger logger = LoggerFactory.getLogger(NetworkCatalog.class);
+
+    static final long ENDPOINT_TTL_MS = 7L * 24 * 60 * 60 * 1000;
+    private static final int MAX_ALBUMS = 20_000;
+    private static final int MAX_TRACKS_PER_ALBUM = 200;
+    private static final int MAX_ENDPOINTS_PER_ALBUM = 64;
+
+    private final Path file;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Map<String, Album> albums = new ConcurrentHashMap<>();
+    private volatile boolean dirty;
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class Album {
+        public String torrentHash;
+        // Written by one search thread per responding peer, so a loaded catalog needs them concurrent too
+        @JsonDeserialize(as = ConcurrentHashMap.class)
+        public Map<String, Track> tracks = new ConcurrentHashMap<>();      // by title
+        @JsonDeserialize(as = ConcurrentHashMap.class)
+        public Map<String, Long> endpoints = new ConcurrentHashMap<>();    // "host:port" -> last seen
+        public long lastSeen;
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class Track {
+        public String title;
+        public String artist;
+        public String album;
+        public String genre;
+        public Integer year;
+    }
+
+    /**
+     * @param file where the catalog is persisted, or {@code null} to keep it in memory only
+     */
+    public NetworkCatalog(Path file) {
+        this.file = file;
+        if (file != null && Files.exists(file)) {
+            try {
+                List<Album> loaded = objectMapper.readValue(file.toFile(), new TypeReference<List<Album>>() {});
+                for (Album a : loaded) {
+                    if (a.torrentHash != null) albums.put(a.torrentHash, a);
+                }
+                prune();
+                logger.info("Loaded {} albums from network catalog", albums.size());
+            } catch (IOException e) {
+                logger.warn("Failed to load network catalog, starting empty", e);
+            }
+        }
+    }
+
+    /** Records that {@code peerHost} returned {@code result} just now. */
+    public void record(String peerHost, KeywordSearchClient.SearchResult result) {
+        if (result.torrentHash == null || result.title == null) return;
+        String hash = result.torrentHash.toLowerCase();
+        long now = System.currentTimeMillis();
+        Album album = albums.computeIfAbsent(hash, h -> {
+            Album a = new Album();
+            a.torrentHash = h;
+            return a;
+        });
+        album.lastSeen = now;
+        if (album.tracks.size() < MAX_TRACKS_PER_ALBUM || album.tracks.containsKey(result.title)) {
+            Track track = new Track();
+            track.title = result.title;
+            track.artist = result.artist;
+            track.album = result.album;
+            track.genre = result.genre;
+            track.year = result.year;
+            album.tracks.put(result.title, track);
+        }
+        if (result.listenPort != null) {
+            String endpoint = peerHost + ":" + result.listenPort;
+            if (album.endpoints.size() < MAX_ENDPOINTS_PER_ALBUM || album.endpoints.containsKey(endpoint)) {
+                album.endpoints.put(endpoint, now);
+            }
+        }
+        dirty = true;
+        if (albums.size() > MAX_ALBUMS) {
+            evictOldest();
+        }
+    }
+
+    /**
+     * Replaces an album with the copy mirrored from a trusted node's library and
+     * marks {@code endpoint} as holding it now.
+     */
+    public void putMirroredAlbum(String torrentHash, List<Track> tracks, String endpoint) {
+        String hash = torrentHash.toLowerCase();
+        long now = System.currentTimeMillis();
+        Album album = albums.computeIfAbsent(hash, h -> {
+            Album a = new Album();
+            a.torrentHash = h;
+            return a;
+        });
+        album.lastSeen = now;
+        album.tracks.clear();
+        for (Track t : tracks.subList(0, Math.min(tracks.size(), MAX_TRACKS_PER_ALBUM))) {
+            if (t.title != null) album.tracks.put(t.title, t);
+        }
+        album.endpoints.put(endpoint, now);
+        dirty = true;
+        if (albums.size() > MAX_ALBUMS) {
+            evictOldest();
+        }
+    }
+
+    /** Forgets that {@code endpoint} holds an album, e.g. after the node deleted it. */
+    public void removeEndpoint(String torrentHash, String endpoint) {
+        Album album = albums.get(torrentHash.toLowerCase());
+        if (album != null && album.endpoints.remove(endpoint) != null) {
+            if (album.endpoints.isEmpty()) albums.remove(album.torrentHash);
+            dirty = true;
+        }
+    }
+
+    /** Marks {@code endpoint} as seen now for each of the given albums it is known to hold. */
+    public void touchEndpoint(String endpoint, Collection<String> torrentHashes) {
+        long now = System.currentTimeMillis();
+        for (String hash : torrentHashes) {
+            Album album = albums.get(hash.toLowerCase());
+            if (album != null && album.endpoints.containsKey(endpoint)) {
+                album.endpoints.put(endpoint, now);
+                album.lastSeen = now;
+                dirty = true;
+            }
+        }
+    }
+
+    /**
+     * Returns catalogued tracks matching {@code keyword} in the same shape a peer
+     * would return them, best matches first. Each result names the endpoint most
+     * recently seen holding its album.
+     */
+    public List<KeywordSearchClient.SearchResult> search(String keyword) {
+        String kw = keyword.toLowerCase();
+        if (kw.endsWith(".minerva")) kw = kw.substring(0, kw.length() - ".minerva".length());
+
+        List<MusicFile> matches = new ArrayList<>();
+        for (Album album : albums.values()) {
+            for (Track t : album.tracks.values()) {
+                if (!contains(t.title, kw) && !contains(t.artist, kw)
+                        && !contains(t.album, kw) && !contains(t.genre, kw)) continue;
+                MusicFile mf = new MusicFile();
+                mf.setTitle(t.title);
+                mf.setArtist(t.artist);
+                mf.setAlbum(t.album);
+                mf.setTorrentHash(album.torrentHash);
+                if (t.genre != null) mf.setGenre(t.genre);
+                if (t.year != null) mf.setYear(t.year);
+                matches.add(mf);
+            }
+        }
+
+        List<KeywordSearchClient.SearchResult> results = new ArrayList<>();
+        for (KeywordRanker.Ranked r : KeywordRanker.rank(matches, kw)) {
+            KeywordSearchClient.SearchResult sr = new KeywordSearchClient.SearchResult();
+            sr.title = r.track.getTitle();
+            sr.artist = r.track.getArtist();
+            sr.album = r.track.getAlbum();
+            sr.torrentHash = r.track.getTorrentHash();
+            sr.genre = r.track.getGenre();
+            sr.year = r.track.getYear();
+            Album album = albums.get(sr.torrentHash);
+            if (album != null) {
+                album.endpoints.entrySet().stream()
+                        .max(Map.Entry.comparingByValue())
+                        .ifPresent(e -> {
+                            int colon = e.getKey().lastIndexOf(':');
+                            sr.peerHost = e.getKey().substring(0, colon);
+                            sr.listenPort = Integer.parseInt(e.getKey().substring(colon + 1));
+                        });
+            }
+            results.add(sr);
+        }
+        return results;
+    }
+
+    /** BitTorrent endpoints ("host:port") known to hold the given torrent. */
+    public Set<String> endpoints(String torrentHash) {
+        Album album = albums.get(torrentHash.toLowerCase());
+        return album != null ? Set.copyOf(album.endpoints.keySet()) : Set.of();
+    }
+
+    /** Whether the catalog lists {@code endpoint} as holding the given torrent. */
+    public boolean holds(String torrentHash, String endpoint) {
+        Album album = albums.get(torrentHash.toLowerCase());
+        return album != null && album.endpoints.containsKey(endpoint);
+    }
+
+    /** Drops endpoints that have not been seen within the TTL, and albums left without any. */
+    public void prune() {
+        long cutoff = System.currentTimeMillis() - ENDPOINT_TTL_MS;
+        boolean removed = albums.values().removeIf(album -> {
+            album.endpoints.values().removeIf(seen -> seen < cutoff);
+            return album.endpoints.isEmpty() && album.lastSeen < cutoff;
+        });
+        if (removed) dirty = true;
+    }
+
+    /** Writes the catalog if it changed since the last save. */
+    public synchronized void save() {
+        if (file == null || !dirty) return;
+        dirty = false;
+        try {
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            objectMapper.writeValue(tmp.toFile(), new ArrayList<>(albums.values()));
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            logger.debug("Saved {} albums to network catalog", albums.size());
+        } catch (IOException e) {
+            dirty = true;
+            logger.warn("Failed to save network catalog", e);
+        }
+    }
+
+    public int size() {
+        return albums.size();
+    }
+
+    private static boolean contains(String value, String kw) {
+        return value != null && value.toLowerCase().contains(kw);
+    }
+
+    private void evictOldest() {
+        albums.values().stream()
+                .min(Comparator.comparingLong(a -> a.lastSeen))
+                .ifPresent(a -> albums.remove(a.torrentHash));
+    }
+}
@@ -0,0 +1,64 @@
+package com.minerva.dht;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Small LRU of already-encoded keyword search responses. Entries are tied to the
+ * library generation they were built from; the first lookup after the library
+ * changes drops the whole cache. A short TTL keeps the embedded peer lists fresh.
+ */
+public class SearchResponseCache {
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final Map<String, Entry> entries;
+    private long generation = -1;
+
+    private static class Entry {
+        final byte[] bytes;
+        final long createdAt;
+
+        Entry(byte[] bytes, long createdAt) {
+            this.bytes = bytes;
+            this.createdAt = createdAt;
+        }
+    }
+
+    public SearchResponseCache(int maxEntries, long ttlMillis) {
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+        this.entries = new LinkedHashMap<>(maxEntries, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > SearchResponseCache.this.maxEntries;
+            }
+        };
+    }
+
+    public static String key(String protocol, String keyword, int limit, int offset) {
+        return protocol + '|' + keyword.trim().toLowerCase() + '|' + limit + '|' + offset;
+    }
+
+    public synchronized byte[] get(String key, long libraryGeneration) {
+        if (libraryGeneration != generation) {
+            entries.clear();
+            generation = libraryGeneration;
+            return null;
+        }
+        Entry e = entries.get(key);
+        if (e == null) return null;
+        if (System.currentTimeMillis() - e.createdAt > ttlMillis) {
+            entries.remove(key);
+            return null;
+        }
+        return e.bytes;
+    }
+
+    public synchronized void put(String key, long libraryGeneration, byte[] bytes) {
+        if (libraryGeneration != generation) {
+            // Built from a library that has changed since; do not keep it.
+            return;
+        }
+        entries.put(key, new Entry(bytes, System.currentTimeMillis()));
+    }
+}
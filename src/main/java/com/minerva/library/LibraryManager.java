@@ -6,6 +6,7 @@ import com.minerva.model.MusicFile;
 import com.minerva.network.JLibTorrentManager;
 import com.minerva.network.TorrentCreator;
 import com.minerva.network.TorrentMetadata;
+import com.minerva.network.TorrentMetainfo;
 import com.minerva.storage.MusicMetadataExtractor;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -15,17 +16,17 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.net.URI;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
@@ -42,11 +43,20 @@ public class LibraryManager {
 
     private final Map<String, TorrentMetadata> metadataMap = new ConcurrentHashMap<>();
     private final ObjectMapper objectMapper = new ObjectMapper();
+    private final AtomicLong generation = new AtomicLong();
 
     public String getLastTorrentHash() {
         return lastTorrentHash;
     }
 
+    /**
+     * Monotonic counter bumped whenever the track list changes. Caches built from
+     * library contents (e.g. search responses) compare it to detect staleness.
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
     public LibraryManager(JLibTorrentManager torrentManager, Path libraryDir, Path torrentFilesDir) {
         this.torrentManager = torrentManager;
         this.torrentCreator = new TorrentCreator(torrentFilesDir, libraryDir);
@@ -260,6 +270,7 @@ public class LibraryManager {
                 }
             }
         }
+        generation.incrementAndGet();
         logger.info("Loaded {} tracks from metadata", tracks.size());
     }
 
@@ -401,9 +412,12 @@ public class LibraryManager {
         try {
             // Get torrent metadata from the bt-based manager
             String torrentName = torrentManager.getTorrentName(hash);
-            List<String> torrentFileNames = torrentManager.getTorrentFileNames(hash);
+            List<String> torrentFileNames = torrentManager.getSelectedFileNames(hash);
+            // Files that were not selected may hold fragments of boundary pieces
+            List<String> skippedFileNames = new ArrayList<>(torrentManager.getTorrentFileNames(hash));
+            skippedFileNames.removeAll(torrentFileNames);
             int numFiles = torrentFileNames.size();
-            boolean isMultiFile = numFiles > 1;
+            boolean isMultiFile = numFiles + skippedFileNames.size() > 1;
 
             if (torrentName == null || torrentName.startsWith("magnet:")) {
                 // Metadata not yet resolved — try to discover from downloads dir
@@ -463,17 +477,40 @@ public class LibraryManager {
                 fileNames.add(fileName);
             }
 
-            // Remove the torrent handle first so bt releases the files
-            try {
-                torrentManager.removeTorrent(hash, false);
-                logger.info("Removed download torrent handle before moving files");
-                Thread.sleep(1000); // Give time for file handles to be released
-            } catch (Exception e) {
-                logger.warn("Could not remove torrent handle: {}", e.getMessage());
+            Set<String> audioExts = new HashSet<>(Arrays.asList("mp3", "flac", "wav", "m4a", "ogg"));
+            long audioCount = fileNames.stream().filter(fn -> audioExts.contains(
+                    fn.contains(".") ? fn.substring(fn.lastIndexOf('.') + 1).toLowerCase() : "")).count();
+
+            // If the torrent already has the library's layout (flat, named after the album, all
+            // files fetched), hand it over as it is: its files are moved and it keeps seeding under
+            // the same hash, with the pieces verified while downloading carried over
+            boolean relocated = false;
+            boolean sameLayout = skippedFileNames.isEmpty()
+                    && torrentFileNames.stream().noneMatch(f -> f.contains("/"))
+                    && isMultiFile == (audioCount > 1)
+                    && (!isMultiFile || torrentName.equals(safeAlbum));
+            if (sameLayout) {
+                try {
+                    relocated = torrentManager.relocateTorrent(hash,
+                            isMultiFile ? albumDir.getParent().toFile() : albumDir.toFile());
+                } catch (IOException e) {
+                    logger.warn("Could not hand {} over to the library, moving its files instead", hash, e);
+                }
+            }
+
+            // Otherwise remove the torrent handle first so bt releases the files
+            if (!relocated) {
+                try {
+                    torrentManager.removeTorrent(hash, false);
+                    logger.info("Removed download torrent handle before moving files");
+                    Thread.sleep(1000); // Give time for file handles to be released
+                } catch (Exception e) {
+                    logger.warn("Could not remove torrent handle: {}", e.getMessage());
+                }
             }
 
             // Move files from downloads to library
-            for (String fileName : fileNames) {
+            for (String fileName : relocated ? List.<String>of() : fileNames) {
                 Path src = isMultiFile ? downloadsDir.resolve(torrentName).resolve(fileName)
                                        : downloadsDir.resolve(fileName);
                 Path dest = albumDir.resolve(fileName);
@@ -488,6 +525,9 @@ public class LibraryManager {
             // Clean up empty source directory for multi-file torrents
             if (isMultiFile) {
                 Path srcDir = downloadsDir.resolve(torrentName);
+                for (String skipped : skippedFileNames) {
+                    Files.deleteIfExists(srcDir.resolve(skipped));
+                }
                 if (Files.exists(srcDir)) {
                     try (var entries = Files.list(srcDir)) {
                         if (entries.findFirst().isEmpty()) {
@@ -524,7 +564,6 @@ public class LibraryManager {
             }
 
             // Filter to audio-only file names (skip cover.jpg etc.)
-            Set<String> audioExts = new HashSet<>(Arrays.asList("mp3", "flac", "wav", "m4a", "ogg"));
             List<String> audioFileNames = new ArrayList<>();
             for (String fn : fileNames) {
                 String ext = fn.contains(".") ? fn.substring(fn.lastIndexOf('.') + 1).toLowerCase() : "";
@@ -571,6 +610,12 @@ public class LibraryManager {
             // Reload library so tracks are immediately available in the UI
             loadLibraryFromTorrents();
 
+            if (relocated) {
+                torrentManager.saveTorrentFile(hash, torrentFilesDir.resolve(hash + ".torrent"));
+                logger.info("Import complete for {}/{}, still seeding {}", artist, album, hash);
+                return;
+            }
+
             // ── Create .torrent and auto-seed ──
             try {
                 List<File> libraryAudioFiles = new ArrayList<>();
@@ -589,20 +634,19 @@ public class LibraryManager {
 
                 if (!libraryAudioFiles.isEmpty()) {
                     URI trackerURI = URI.create("udp://tracker.opentrackr.org:1337/announce");
-                    com.turn.ttorrent.common.Torrent torrent;
+                    TorrentMetainfo torrent;
                     if (libraryAudioFiles.size() == 1) {
-                        torrent = com.turn.ttorrent.common.Torrent.create(
-                                libraryAudioFiles.get(0), trackerURI, "Minerva");
+                        torrent = TorrentMetainfo.create(libraryAudioFiles.get(0).toPath(), trackerURI, "Minerva");
                     } else {
-                        torrent = com.turn.ttorrent.common.Torrent.create(
-                                albumDir.toRealPath().toFile(), libraryAudioFiles, trackerURI, "Minerva");
+                        Path realAlbumDir = albumDir.toRealPath();
+                        List<Path> torrentFiles = new ArrayList<>();
+                        for (File f : libraryAudioFiles) torrentFiles.add(realAlbumDir.resolve(f.getName()));
+                        torrent = TorrentMetainfo.create(realAlbumDir, torrentFiles, trackerURI, "Minerva");
                     }
 
-                    String newHash = bytesToHex(torrent.getInfoHash());
+                    String newHash = torrent.infoHash();
                     Path torrentFilePath = torrentFilesDir.resolve(newHash + ".torrent");
-                    try (OutputStream os = new FileOutputStream(torrentFilePath.toFile())) {
-                        torrent.save(os);
-                    }
+                    Files.write(torrentFilePath, torrent.encode());
                     logger.info("Created .torrent file: {} (hash: {})", torrentFilePath, newHash);
 
                     // Update metadata if hash changed (expected for magnet downloads)
@@ -865,6 +909,7 @@ public class LibraryManager {
             newTrack.setTorrentHash(hash);
             newTrack.setFilePath(contentDir.resolve(fileName).toString());
             tracks.add(newTrack);
+            generation.incrementAndGet();
             logger.info("Added new track to library: {} - {} ({})", metadata.artist, metadata.title, metadata.album);
 
             lastTorrentHash = hash;
@@ -878,12 +923,9 @@ public class LibraryManager {
             // Auto-seed the new torrent
             if (torrentManager != null) {
                 try {
-                    Path torrentFilePath = torrentFilesDir.resolve(hash + ".torrent");
-                    if (Files.exists(torrentFilePath)) {
-                        File savePath = contentDir.toFile();
-                        torrentManager.seedTorrent(torrentFilePath.toFile(), savePath);
-                        logger.info("Auto-seeding single upload: {} (hash: {})", metadata.title, hash);
-                    }
+                    File savePath = contentDir.toFile();
+                    torrentManager.seedTorrent(torrentMeta.getTorrentBytes(), savePath);
+                    logger.info("Auto-seeding single upload: {} (hash: {})", metadata.title, hash);
                 } catch (Exception seedEx) {
                     logger.warn("Failed to auto-seed single upload: {}", seedEx.getMessage());
                 }
@@ -1043,6 +1085,7 @@ public class LibraryManager {
                 tracks.add(mf);
                 logger.debug("Added track: {}", mf.getTitle());
             }
+            generation.incrementAndGet();
 
             lastTorrentHash = hash;
 
@@ -1055,13 +1098,10 @@ public class LibraryManager {
             // Auto-seed the new torrent
             if (torrentManager != null) {
                 try {
-                    Path torrentFilePath = torrentFilesDir.resolve(hash + ".torrent");
-                    if (Files.exists(torrentFilePath)) {
-                        boolean isAlbumTorrent = meta.tracks != null && meta.tracks.size() > 1;
-                        File savePath = isAlbumTorrent ? albumDir.getParent().toFile() : albumDir.toFile();
-                        torrentManager.seedTorrent(torrentFilePath.toFile(), savePath);
-                        logger.info("Auto-seeding album upload: {} (hash: {})", albumTitle, hash);
-                    }
+                    boolean isAlbumTorrent = meta.tracks != null && meta.tracks.size() > 1;
+                    File savePath = isAlbumTorrent ? albumDir.getParent().toFile() : albumDir.toFile();
+                    torrentManager.seedTorrent(torrentMeta.getTorrentBytes(), savePath);
+                    logger.info("Auto-seeding album upload: {} (hash: {})", albumTitle, hash);
                 } catch (Exception seedEx) {
                     logger.warn("Failed to auto-seed album upload: {}", seedEx.getMessage());
                 }
@@ -1147,12 +1187,6 @@ public class LibraryManager {
         return s.replaceAll("[\\\\/:*?\"<>|]", "_").replaceAll("\\s+", "_").trim();
     }
 
-    private static String bytesToHex(byte[] bytes) {
-        StringBuilder sb = new StringBuilder();
-        for (byte b : bytes) sb.append(String.format("%02x", b));
-        return sb.toString();
-    }
-
     private String getExtension(File file) {
         String name = file.getName();
         int dot = name.lastIndexOf('.');
@@ -1169,6 +1203,32 @@ public class LibraryManager {
                 .collect(Collectors.toList());
     }
 
+    /**
+     * SHA-1 of each album's stored metadata, keyed by torrent hash. Catalog sync
+     * compares these to find the albums that changed since a node last mirrored us.
+     */
+    public Map<String, String> getMetadataDigests() {
+        Map<String, String> digests = new HashMap<>();
+        for (Map.Entry<String, TorrentMetadata> entry : metadataMap.entrySet()) {
+            try {
+                MessageDigest md = MessageDigest.getInstance("SHA-1");
+                byte[] digest = md.digest(objectMapper.writeValueAsBytes(entry.getValue()));
+                StringBuilder sb = new StringBuilder(digest.length * 2);
+                for (byte b : digest) sb.append(String.format("%02x", b & 0xff));
+                digests.put(entry.getKey().toLowerCase(), sb.toString());
+            } catch (IOException | NoSuchAlgorithmException e) {
+                logger.warn("Could not digest metadata for {}", entry.getKey(), e);
+            }
+        }
+        return digests;
+    }
+
+    public List<MusicFile> getTracksForTorrent(String torrentHash) {
+        return tracks.stream()
+                .filter(t -> torrentHash.equalsIgnoreCase(t.getTorrentHash()))
+                .collect(Collectors.toList());
+    }
+
     public void announceAllKeywords(DHTKeywordManager dht) {
         for (MusicFile track : tracks) {
             String[] keywords = extractKeywords(track);
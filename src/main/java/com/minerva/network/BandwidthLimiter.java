@@ -0,0 +1,234 @@
+package com.minerva.network;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Token-bucket rate limits for BitTorrent traffic, globally and per torrent, in
+ * bytes per second (0 means unlimited). Time-of-day schedules replace the global
+ * limits while they are in effect. While a torrent is feeding playback, other
+ * torrents may not drain the global buckets below the reserved share, which
+ * leaves that much of the bandwidth for it.
+ *
+ * <p>Settings are saved as JSON so they survive a restart; the initial global
+ * limits come from {@code UPLOAD_LIMIT_KBPS} and {@code DOWNLOAD_LIMIT_KBPS}.
+ */
+public class BandwidthLimiter {
+    private static final Logger logger = LoggerFactory.getLogger(BandwidthLimiter.class);
+    private static final long MIN_BURST = 64 * 1024;
+    private static final long SCHEDULE_CHECK_MS = 10_000;
+
+    public enum Direction { UPLOAD, DOWNLOAD }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class Settings {
+        public long uploadLimit;
+        public long downloadLimit;
+        public int playbackReservePercent = 30;
+        public List<Schedule> schedules = new ArrayList<>();
+        public Map<String, TorrentLimit> torrents = new HashMap<>();
+    }
+
+    /** Global limits between {@code start} and {@code end} ("HH:mm", may wrap past midnight). */
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class Schedule {
+        public String start;
+        public String end;
+        public long uploadLimit;
+        public long downloadLimit;
+
+        boolean covers(LocalTime time) {
+            LocalTime from = LocalTime.parse(start);
+            LocalTime to = LocalTime.parse(end);
+            return from.isBefore(to)
+                    ? !time.isBefore(from) && time.isBefore(to)
+                    : !time.isBefore(from) || time.isBefore(to);
+        }
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class TorrentLimit {
+        public long uploadLimit;
+        public long downloadLimit;
+    }
+
+    private static class TokenBucket {
+        private long rate;
+        private double tokens;
+        private long last = System.nanoTime();
+
+        synchronized void setRate(long rate) {
+            refill();
+            this.rate = rate;
+            tokens = Math.min(tokens, capacity());
+        }
+
+        /** True if the bucket is unlimited or holds at least {@code floor} of its capacity. */
+        synchronized boolean available(double floorFraction) {
+            if (rate <= 0) return true;
+            refill();
+            return tokens >= floorFraction * capacity();
+        }
+
+        // May go into debt, so a block bigger than the burst still gets through eventually
+        synchronized void take(int bytes) {
+            if (rate > 0) tokens -= bytes;
+        }
+
+        private double capacity() {
+            return Math.max(rate, MIN_BURST);
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            tokens = Math.min(capacity(), tokens + (now - last) / 1e9 * rate);
+            last = now;
+        }
+    }
+
+    private final Path settingsFile;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final TokenBucket globalUpload = new TokenBucket();
+    private final TokenBucket globalDownload = new TokenBucket();
+    private final Map<String, TokenBucket[]> torrentBuckets = new ConcurrentHashMap<>();
+    private volatile Settings settings;
+    private volatile String playbackTorrent;
+    private volatile long lastScheduleCheck;
+
+    public BandwidthLimiter(Path settingsFile) {
+        this.settingsFile = settingsFile;
+        Settings loaded = null;
+        if (Files.exists(settingsFile)) {
+            try {
+                loaded = objectMapper.readValue(settingsFile.toFile(), Settings.class);
+            } catch (IOException e) {
+                logger.warn("Ignoring unreadable bandwidth settings {}", settingsFile, e);
+            }
+        }
+        if (loaded == null) {
+            loaded = new Settings();
+            loaded.uploadLimit = Long.parseLong(System.getenv().getOrDefault("UPLOAD_LIMIT_KBPS", "0")) * 1024;
+            loaded.downloadLimit = Long.parseLong(System.getenv().getOrDefault("DOWNLOAD_LIMIT_KBPS", "0")) * 1024;
+        }
+        apply(loaded);
+    }
+
+    /**
+     * Takes {@code bytes} of the given direction for a torrent if its own and the
+     * global bucket allow it right now. Returns false if the traffic has to wait.
+     */
+    public boolean tryAcquire(String hashHex, Direction direction, int bytes) {
+        if (System.currentTimeMillis() - lastScheduleCheck > SCHEDULE_CHECK_MS) applyGlobalLimits();
+
+        TokenBucket global = direction == Direction.UPLOAD ? globalUpload : globalDownload;
+        TokenBucket[] own = torrentBuckets.get(hashHex);
+        TokenBucket torrent = own != null ? own[direction.ordinal()] : null;
+
+        String playback = playbackTorrent;
+        double reserve = playback != null && !playback.equals(hashHex)
+                ? settings.playbackReservePercent / 100.0 : 0;
+        synchronized (this) {
+            if (!global.available(reserve) || (torrent != null && !torrent.available(0))) return false;
+            global.take(bytes);
+            if (torrent != null) torrent.take(bytes);
+        }
+        return true;
+    }
+
+    /** Marks the torrent that feeds playback, or clears it with null. */
+    public void setPlaybackTorrent(String hashHex) {
+        this.playbackTorrent = hashHex;
+    }
+
+    public String getPlaybackTorrent() {
+        return playbackTorrent;
+    }
+
+    public Settings getSettings() {
+        return settings;
+    }
+
+    /** Replaces all settings, effective immediately, and saves them. */
+    public void update(Settings newSettings) {
+        apply(newSettings);
+        save();
+    }
+
+    /** Sets or, with both limits 0, removes the limits of one torrent. */
+    public void setTorrentLimit(String hashHex, long uploadLimit, long downloadLimit) {
+        Settings next = copy(settings);
+        if (uploadLimit <= 0 && downloadLimit <= 0) {
+            next.torrents.remove(hashHex);
+        } else {
+            TorrentLimit limit = new TorrentLimit();
+            limit.uploadLimit = uploadLimit;
+            limit.downloadLimit = downloadLimit;
+            next.torrents.put(hashHex, limit);
+        }
+        update(next);
+    }
+
+    private synchronized void apply(Settings s) {
+        if (s.schedules == null) s.schedules = new ArrayList<>();
+        if (s.torrents == null) s.torrents = new HashMap<>();
+        for (Schedule schedule : s.schedules) {
+            // Fail here rather than on every packet
+            LocalTime.parse(schedule.start);
+            LocalTime.parse(schedule.end);
+        }
+        this.settings = s;
+        torrentBuckets.keySet().retainAll(s.torrents.keySet());
+        for (Map.Entry<String, TorrentLimit> e : s.torrents.entrySet()) {
+            TokenBucket[] buckets = torrentBuckets.computeIfAbsent(e.getKey(),
+                    k -> new TokenBucket[]{new TokenBucket(), new TokenBucket()});
+            buckets[Direction.UPLOAD.ordinal()].setRate(e.getValue().uploadLimit);
+            buckets[Direction.DOWNLOAD.ordinal()].setRate(e.getValue().downloadLimit);
+        }
+        applyGlobalLimits();
+    }
+
+    private void applyGlobalLimits() {
+        lastScheduleCheck = System.currentTimeMillis();
+        Settings s = settings;
+        long upload = s.uploadLimit;
+        long download = s.downloadLimit;
+        LocalTime now = LocalTime.now();
+        for (Schedule schedule : s.schedules) {
+            if (schedule.covers(now)) {
+                upload = schedule.uploadLimit;
+                download = schedule.downloadLimit;
+                break;
+            }
+        }
+        globalUpload.setRate(upload);
+        globalDownload.setRate(download);
+    }
+
+    private void save() {
+        try {
+            Files.createDirectories(settingsFile.getParent());
+            Path tmp = settingsFile.resolveSibling(settingsFile.getFileName() + ".tmp");
+            objectMapper.writerWithDefaultPrettyPrinter().writeValue(tmp.toFile(), settings);
+            Files.move(tmp, settingsFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warn("Failed to save bandwidth settings to {}", settingsFile, e);
+        }
+    }
+
+    private Settings copy(Settings s) {
+        return objectMapper.convertValue(s, Settings.class);
+    }
+}
@@ -0,0 +1,106 @@
+package com.minerva.network;
+
+import bt.net.InetPeerAddress;
+import lbms.plugins.mldht.kad.DHT;
+import lbms.plugins.mldht.kad.KBucketEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps the DHT nodes we have verified as reachable in {@code downloads/dht/nodes.txt},
+ * one "host:port lastSeen" per line, so the next start can bootstrap from them
+ * instead of only the public routers. Each save merges the current routing table
+ * into the nodes remembered from earlier sessions and forgets nodes not seen
+ * for a week.
+ */
+public class DHTNodeStore {
+    private static final Logger logger = LoggerFactory.getLogger(DHTNodeStore.class);
+
+    private static final String NODES_FILE = "nodes.txt";
+    private static final long NODE_TTL_MS = 7L * 24 * 60 * 60 * 1000;
+    private static final int MAX_NODES = 1000;
+    private static final int MAX_BOOTSTRAP_NODES = 64;
+
+    private final Path file;
+    private final Map<InetSocketAddress, Long> known = new ConcurrentHashMap<>();
+
+    public DHTNodeStore(Path dir) {
+        this.file = dir.resolve(NODES_FILE);
+        if (!Files.exists(file)) return;
+        try (BufferedReader reader = Files.newBufferedReader(file)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.trim().split(" ");
+                int colon = parts[0].lastIndexOf(':');
+                if (parts.length != 2 || colon <= 0) continue;
+                try {
+                    InetSocketAddress addr = new InetSocketAddress(parts[0].substring(0, colon),
+                            Integer.parseInt(parts[0].substring(colon + 1)));
+                    if (!addr.isUnresolved()) known.put(addr, Long.parseLong(parts[1]));
+                } catch (IllegalArgumentException ignored) {}
+            }
+            logger.info("Loaded {} DHT nodes from {}", known.size(), file);
+        } catch (IOException e) {
+            logger.warn("Failed to load DHT nodes", e);
+        }
+    }
+
+    /** Remembered nodes as bootstrap addresses, most recently seen first. */
+    public List<InetPeerAddress> bootstrapNodes() {
+        return newestFirst().stream()
+                .limit(MAX_BOOTSTRAP_NODES)
+                .map(a -> new InetPeerAddress(a.getAddress().getHostAddress(), a.getPort()))
+                .collect(Collectors.toList());
+    }
+
+    /** Merges the verified entries of {@code dht}'s routing table and writes the file. */
+    public synchronized void save(DHT dht) {
+        if (dht.isRunning()) {
+            dht.getNode().table().stream()
+                    .flatMap(e -> e.getBucket().entriesStream())
+                    .filter(KBucketEntry::verifiedReachable)
+                    .forEach(e -> known.merge(e.getAddress(), e.getLastSeen(), Math::max));
+        }
+        long cutoff = System.currentTimeMillis() - NODE_TTL_MS;
+        known.values().removeIf(seen -> seen < cutoff);
+        List<InetSocketAddress> nodes = newestFirst();
+        if (nodes.size() > MAX_NODES) {
+            nodes.subList(MAX_NODES, nodes.size()).forEach(known::remove);
+            nodes = nodes.subList(0, MAX_NODES);
+        }
+        try {
+            Path tmp = file.resolveSibling(NODES_FILE + ".tmp");
+            try (BufferedWriter writer = Files.newBufferedWriter(tmp)) {
+                for (InetSocketAddress addr : nodes) {
+                    Long seen = known.get(addr);
+                    if (seen == null) continue;
+                    writer.write(addr.getAddress().getHostAddress() + ":" + addr.getPort() + " " + seen);
+                    writer.newLine();
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            logger.debug("Saved {} DHT nodes", nodes.size());
+        } catch (IOException e) {
+            logger.warn("Failed to save DHT nodes", e);
+        }
+    }
+
+    private List<InetSocketAddress> newestFirst() {
+        List<Map.Entry<InetSocketAddress, Long>> entries = new ArrayList<>(known.entrySet());
+        entries.sort(Map.Entry.<InetSocketAddress, Long>comparingByValue().reversed());
+        return entries.stream().map(Map.Entry::getKey).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,120 @@
+package com.minerva.network;
+
+import lbms.plugins.mldht.kad.DHT;
+import lbms.plugins.mldht.kad.PeerAddressDBItem;
+import lbms.plugins.mldht.kad.tasks.PeerLookupTask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Announces this node on two well-known DHT infohashes: the BitTorrent listen
+ * port under "minerva-discovery" and the keyword search port under
+ * "minerva-discovery-search". Every announce starts with a fresh get_peers
+ * lookup and sends announce_peer as soon as it finishes, well inside the
+ * lifetime of the write tokens it collected, and is repeated on a jittered
+ * interval shorter than the time DHT nodes keep announced peers. The search
+ * endpoints returned by the lookups are kept as discovery peers.
+ */
+public class DiscoveryAnnouncer {
+    private static final Logger logger = LoggerFactory.getLogger(DiscoveryAnnouncer.class);
+
+    static final byte[] LISTEN_INFOHASH = sha1("minerva-discovery");
+    static final byte[] SEARCH_INFOHASH = sha1("minerva-discovery-search");
+
+    // mldht nodes keep announced peers for an hour; tokens only live 5 minutes,
+    // so each announce reuses nothing and starts from its own lookup
+    private static final long ANNOUNCE_INTERVAL_MS = 20 * 60 * 1000;
+    private static final long LOOKUP_INTERVAL_MS = 60 * 1000;
+    private static final long PEER_TTL_MS = 60 * 60 * 1000;
+    private static final int MAX_PEERS = 512;
+
+    private final DHT dht;
+    private final ScheduledExecutorService scheduler;
+    private final int listenPort;
+    private final Map<InetSocketAddress, Long> searchPeers = new ConcurrentHashMap<>();
+    private volatile int searchPort;
+
+    DiscoveryAnnouncer(DHT dht, ScheduledExecutorService scheduler, int listenPort) {
+        this.dht = dht;
+        this.scheduler = scheduler;
+        this.listenPort = listenPort;
+    }
+
+    /** Starts announcing {@code searchPort} alongside the listen port. */
+    public void start(int searchPort) {
+        this.searchPort = searchPort;
+        scheduleAnnounce(ThreadLocalRandom.current().nextLong(1_000, 10_000));
+        scheduler.scheduleWithFixedDelay(() -> lookup(SEARCH_INFOHASH, 0),
+                LOOKUP_INTERVAL_MS, LOOKUP_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /** Search endpoints other nodes announced within the last hour. */
+    public Set<InetSocketAddress> getSearchPeers() {
+        long cutoff = System.currentTimeMillis() - PEER_TTL_MS;
+        searchPeers.values().removeIf(seen -> seen < cutoff);
+        return searchPeers.keySet().stream().collect(Collectors.toUnmodifiableSet());
+    }
+
+    private void scheduleAnnounce(long delayMs) {
+        scheduler.schedule(() -> {
+            lookup(LISTEN_INFOHASH, listenPort);
+            lookup(SEARCH_INFOHASH, searchPort);
+            // +/-20% so nodes started together do not announce in lockstep
+            long jitter = (long) (ANNOUNCE_INTERVAL_MS * ThreadLocalRandom.current().nextDouble(-0.2, 0.2));
+            scheduleAnnounce(ANNOUNCE_INTERVAL_MS + jitter);
+        }, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs a get_peers lookup on {@code infohash}, collecting search peers when it is
+     * the search infohash, and announces {@code announcePort} with the tokens it
+     * gathered once it finishes. A port of 0 only looks up.
+     */
+    private void lookup(byte[] infohash, int announcePort) {
+        if (!dht.isRunning()) return;
+        dht.getServerManager().awaitActiveServer().thenRun(() -> {
+            PeerLookupTask task = dht.createPeerLookup(infohash);
+            if (task == null) return;
+            if (infohash == SEARCH_INFOHASH) {
+                task.setResultHandler((source, item) -> addSearchPeer(item));
+            }
+            if (announcePort > 0) {
+                task.addListener(finished -> {
+                    if (dht.announce((PeerLookupTask) finished, true, announcePort) != null) {
+                        logger.debug("Announced port {} on discovery infohash", announcePort);
+                    }
+                });
+            }
+            dht.getTaskManager().addTask(task);
+        }).exceptionally(e -> {
+            logger.debug("Discovery lookup failed: {}", e.getMessage());
+            return null;
+        });
+    }
+
+    private void addSearchPeer(PeerAddressDBItem item) {
+        InetSocketAddress addr = item.toSocketAddress();
+        if (searchPeers.size() >= MAX_PEERS && !searchPeers.containsKey(addr)) return;
+        searchPeers.put(addr, System.currentTimeMillis());
+    }
+
+    private static byte[] sha1(String s) {
+        try {
+            return MessageDigest.getInstance("SHA-1").digest(s.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-1 not available", e);
+        }
+    }
+}
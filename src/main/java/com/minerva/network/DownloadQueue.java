@@ -0,0 +1,87 @@
+package com.minerva.network;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Downloads waiting for a free slot, ordered by priority and first-come
+ * first-served within a priority. Entries can also be moved by hand, in which
+ * case they take the priority of the place they are moved to so the order stays
+ * consistent for later arrivals.
+ */
+public class DownloadQueue {
+    public enum Priority { HIGH, NORMAL, LOW }
+
+    private static class Entry {
+        final String hashHex;
+        Priority priority;
+
+        Entry(String hashHex, Priority priority) {
+            this.hashHex = hashHex;
+            this.priority = priority;
+        }
+    }
+
+    private final List<Entry> entries = new ArrayList<>();
+
+    /** Adds a download behind everything of the same or higher priority. */
+    public synchronized void add(String hashHex, Priority priority) {
+        remove(hashHex);
+        int i = 0;
+        while (i < entries.size() && entries.get(i).priority.compareTo(priority) <= 0) i++;
+        entries.add(i, new Entry(hashHex, priority));
+    }
+
+    /** Takes the next download to start, or null if none are waiting. */
+    public synchronized String poll() {
+        return entries.isEmpty() ? null : entries.remove(0).hashHex;
+    }
+
+    public synchronized boolean remove(String hashHex) {
+        return entries.removeIf(e -> e.hashHex.equals(hashHex));
+    }
+
+    public synchronized boolean contains(String hashHex) {
+        return position(hashHex) >= 0;
+    }
+
+    /** Zero-based place in the queue, or -1 if not queued. */
+    public synchronized int position(String hashHex) {
+        for (int i = 0; i < entries.size(); i++) {
+            if (entries.get(i).hashHex.equals(hashHex)) return i;
+        }
+        return -1;
+    }
+
+    /** Priority of a waiting download, or null if not queued. */
+    public synchronized Priority priorityOf(String hashHex) {
+        int i = position(hashHex);
+        return i >= 0 ? entries.get(i).priority : null;
+    }
+
+    /** Re-queues a waiting download at the end of its new priority level. */
+    public synchronized boolean setPriority(String hashHex, Priority priority) {
+        if (!contains(hashHex)) return false;
+        add(hashHex, priority);
+        return true;
+    }
+
+    /** Moves a waiting download to {@code position}, adopting the priority found there. */
+    public synchronized boolean move(String hashHex, int position) {
+        int from = position(hashHex);
+        if (from < 0) return false;
+        Entry entry = entries.remove(from);
+        int to = Math.max(0, Math.min(position, entries.size()));
+        if (to < entries.size()) {
+            entry.priority = entries.get(to).priority;
+        } else if (to > 0) {
+            entry.priority = entries.get(to - 1).priority;
+        }
+        entries.add(to, entry);
+        return true;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+}
@@ -0,0 +1,213 @@
+package com.minerva.network;
+
+import bt.data.ChunkDescriptor;
+import bt.data.LocalBitfield;
+import bt.metainfo.Torrent;
+import bt.metainfo.TorrentFile;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Fast-resume records for seeded torrents, one {@code <infohash>.json} per torrent
+ * under {@code downloads/resume}. A record holds the verified piece bitfield and the
+ * size and mtime of every file at the time it was verified. When a torrent is
+ * started again, pieces are trusted from the record unless they overlap a file
+ * whose size or mtime has changed since, so only those pieces are re-hashed.
+ *
+ * <p>bt hands the verifier nothing but the chunk list, so pending torrents are
+ * matched to it by a digest over their piece hashes.
+ */
+public class FastResumeStore {
+    private static final Logger logger = LoggerFactory.getLogger(FastResumeStore.class);
+
+    private final Path dir;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Map<String, Pending> pending = new ConcurrentHashMap<>();
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class Record {
+        public int pieceCount;
+        public byte[] pieces;
+        public List<FileStat> files = new ArrayList<>();
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class FileStat {
+        public String path;
+        public long size;
+        public long mtime;
+    }
+
+    private static class Pending {
+        final String hashHex;
+        final List<Path> files;
+        final BitSet trusted;
+
+        Pending(String hashHex, List<Path> files, BitSet trusted) {
+            this.hashHex = hashHex;
+            this.files = files;
+            this.trusted = trusted;
+        }
+    }
+
+    public FastResumeStore(Path dir) {
+        this.dir = dir;
+        try {
+            Files.createDirectories(dir);
+        } catch (IOException e) {
+            logger.warn("Cannot create fast-resume directory {}", dir, e);
+        }
+    }
+
+    /**
+     * Registers a torrent that is about to start from {@code contentRoot}, working
+     * out which pieces its record lets the verifier skip.
+     */
+    public void expect(Torrent torrent, Path contentRoot) {
+        String hashHex = HexFormat.of().formatHex(torrent.getTorrentId().getBytes());
+        List<Path> files = contentFiles(torrent, contentRoot);
+
+        List<byte[]> hashes = new ArrayList<>();
+        torrent.getChunkHashes().forEach(hashes::add);
+        BitSet trusted = trustedPieces(hashHex, torrent, files, hashes.size());
+        pending.put(piecesDigest(hashes), new Pending(hashHex, files, trusted));
+    }
+
+    /**
+     * Writes a record that trusts the {@code verified} pieces of {@code files} as
+     * they are now. Used when a torrent's files were moved, so the next start does
+     * not hash them again.
+     */
+    public void save(Torrent torrent, List<Path> files, BitSet verified) {
+        Record record = new Record();
+        for (byte[] ignored : torrent.getChunkHashes()) record.pieceCount++;
+        record.pieces = verified.toByteArray();
+        for (Path file : files) {
+            FileStat stat = stat(file);
+            if (stat == null) return;
+            record.files.add(stat);
+        }
+        write(HexFormat.of().formatHex(torrent.getTorrentId().getBytes()), record);
+    }
+
+    /** Where FileSystemStorage keeps the torrent's files: multi-file torrents in a directory named after them. */
+    static List<Path> contentFiles(Torrent torrent, Path contentRoot) {
+        List<Path> files = new ArrayList<>();
+        for (TorrentFile file : torrent.getFiles()) {
+            Path path = torrent.getFiles().size() > 1 ? contentRoot.resolve(torrent.getName()) : contentRoot;
+            for (String element : file.getPathElements()) path = path.resolve(element);
+            files.add(path);
+        }
+        return files;
+    }
+
+    /** Pieces of the pending torrent owning {@code chunks} that need no re-hash, or null if unknown. */
+    BitSet trustedPieces(List<ChunkDescriptor> chunks) {
+        Pending p = pending.get(digestOf(chunks));
+        return p != null ? p.trusted : null;
+    }
+
+    /** Stores the outcome of verifying {@code chunks} as the torrent's new record. */
+    void verified(List<ChunkDescriptor> chunks, LocalBitfield bitfield) {
+        Pending p = pending.remove(digestOf(chunks));
+        if (p == null) return;
+        Record record = new Record();
+        record.pieceCount = bitfield.getPiecesTotal();
+        record.pieces = bitfield.getBitmask().toByteArray();
+        for (Path file : p.files) {
+            FileStat stat = stat(file);
+            if (stat == null) return;   // incomplete content, nothing worth resuming from
+            record.files.add(stat);
+        }
+        write(p.hashHex, record);
+    }
+
+    private void write(String hashHex, Record record) {
+        try {
+            Path target = dir.resolve(hashHex + ".json");
+            Path tmp = dir.resolve(hashHex + ".json.tmp");
+            objectMapper.writeValue(tmp.toFile(), record);
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warn("Failed to write fast-resume record for {}", hashHex, e);
+        }
+    }
+
+    private BitSet trustedPieces(String hashHex, Torrent torrent, List<Path> files, int pieceCount) {
+        Path recordFile = dir.resolve(hashHex + ".json");
+        if (!Files.exists(recordFile)) return new BitSet();
+        Record record;
+        try {
+            record = objectMapper.readValue(recordFile.toFile(), Record.class);
+        } catch (IOException e) {
+            logger.warn("Ignoring unreadable fast-resume record for {}", hashHex, e);
+            return new BitSet();
+        }
+        if (record.pieceCount != pieceCount || record.pieces == null || record.files.size() != files.size()) {
+            return new BitSet();
+        }
+
+        BitSet trusted = BitSet.valueOf(record.pieces);
+        long pieceLength = torrent.getChunkSize();
+        long offset = 0;
+        int changed = 0;
+        for (int i = 0; i < files.size(); i++) {
+            long size = torrent.getFiles().get(i).getSize();
+            FileStat now = stat(files.get(i));
+            FileStat then = record.files.get(i);
+            if (now == null || now.size != then.size || now.mtime != then.mtime) {
+                changed++;
+                if (size > 0) {
+                    trusted.clear((int) (offset / pieceLength), (int) ((offset + size - 1) / pieceLength) + 1);
+                }
+            }
+            offset += size;
+        }
+        logger.info("Fast-resume for {}: {} of {} pieces trusted, {} changed files",
+                hashHex, trusted.cardinality(), pieceCount, changed);
+        return trusted;
+    }
+
+    private static FileStat stat(Path file) {
+        try {
+            FileStat stat = new FileStat();
+            stat.path = file.toString();
+            stat.size = Files.size(file);
+            stat.mtime = Files.getLastModifiedTime(file).toMillis();
+            return stat;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static String digestOf(List<ChunkDescriptor> chunks) {
+        List<byte[]> hashes = new ArrayList<>(chunks.size());
+        for (ChunkDescriptor chunk : chunks) hashes.add(chunk.getChecksum());
+        return piecesDigest(hashes);
+    }
+
+    private static String piecesDigest(List<byte[]> hashes) {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            for (byte[] h : hashes) sha1.update(h);
+            return HexFormat.of().formatHex(sha1.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-1 not available", e);
+        }
+    }
+}
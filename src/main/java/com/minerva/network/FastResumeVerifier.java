@@ -0,0 +1,50 @@
+package com.minerva.network;
+
+import bt.data.ChunkDescriptor;
+import bt.data.ChunkVerifier;
+import bt.data.LocalBitfield;
+
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Chunk verifier that marks the pieces a fast-resume record vouches for as
+ * verified without reading them, and hashes only the rest. Torrents without
+ * a pending record are verified in full by the delegate.
+ */
+public class FastResumeVerifier implements ChunkVerifier {
+    private final FastResumeStore store;
+    private final ChunkVerifier delegate;
+
+    public FastResumeVerifier(FastResumeStore store, ChunkVerifier delegate) {
+        this.store = store;
+        this.delegate = delegate;
+    }
+
+    @Override
+    public boolean verify(List<ChunkDescriptor> chunks, LocalBitfield bitfield) {
+        BitSet trusted = store.trustedPieces(chunks);
+        if (trusted == null || trusted.isEmpty()) {
+            boolean complete = delegate.verify(chunks, bitfield);
+            if (trusted != null) store.verified(chunks, bitfield);
+            return complete;
+        }
+        for (int i = 0; i < chunks.size(); i++) {
+            if (trusted.get(i) || delegate.verifyIfPresent(chunks.get(i))) {
+                bitfield.markLocalPieceVerified(i);
+            }
+        }
+        store.verified(chunks, bitfield);
+        return bitfield.getPiecesRemaining() == 0;
+    }
+
+    @Override
+    public boolean verify(ChunkDescriptor chunk) {
+        return delegate.verify(chunk);
+    }
+
+    @Override
+    public boolean verifyIfPresent(ChunkDescriptor chunk) {
+        return delegate.verifyIfPresent(chunk);
+    }
+}
@@ -6,47 +6,72 @@ import bt.data.file.FileSystemStorage;
 import bt.dht.DHTConfig;
 import bt.dht.DHTModule;
 import bt.dht.DHTService;
+import bt.dht.MldhtService;
+import bt.metainfo.IMetadataService;
+import bt.metainfo.Torrent;
 import bt.metainfo.TorrentFile;
 import bt.metainfo.TorrentId;
 import bt.net.InetPeerAddress;
+import bt.peer.IPeerRegistry;
 import bt.runtime.BtClient;
 import bt.runtime.BtRuntime;
 import bt.runtime.BtRuntimeBuilder;
 import bt.runtime.Config;
+import bt.torrent.TorrentRegistry;
+import bt.torrent.fileselector.FilePriority;
 import bt.torrent.TorrentSessionState;
 import bt.tracker.http.HttpTrackerModule;
 import bt.peerexchange.PeerExchangeModule;
 import bt.peer.lan.LocalServiceDiscoveryModule;
 import com.minerva.DummySelectorModule;
+import com.minerva.FastResumeModule;
 import com.minerva.MinervaPortMapperModule;
+import com.minerva.SearchExtensionModule;
+import com.minerva.SearchPeerSourceModule;
+import com.minerva.TrafficModule;
+import lbms.plugins.mldht.kad.DHT;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.lang.reflect.Field;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileSystemException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 import java.util.concurrent.*;
-import java.util.function.Consumer;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
 
 public class JLibTorrentManager {
     private static final Logger logger = LoggerFactory.getLogger(JLibTorrentManager.class);
+    private static final int DHT_SAVE_INTERVAL_MIN = 5;
+    private static final int DHT_READY_ENTRIES = 8;
+    private static final long STREAM_READ_AHEAD_BYTES =
+            Long.parseLong(System.getenv().getOrDefault("STREAM_READAHEAD_MB", "8")) * 1024 * 1024;
+    private static final int MAX_ACTIVE_DOWNLOADS =
+            Integer.parseInt(System.getenv().getOrDefault("MAX_ACTIVE_DOWNLOADS", "3"));
+    private static final long STREAM_PIECE_TIMEOUT_MS =
+            Long.parseLong(System.getenv().getOrDefault("STREAM_PIECE_TIMEOUT_SEC", "15")) * 1000;
+    // The player fetches range after range, each on its own stream; focus survives the gaps
+    private static final long STREAM_IDLE_GRACE_MS =
+            Long.parseLong(System.getenv().getOrDefault("STREAM_IDLE_GRACE_SEC", "10")) * 1000;
+    // One sample per status update, about a second apart
+    private static final int RATE_HISTORY_SAMPLES =
+            Integer.parseInt(System.getenv().getOrDefault("RATE_HISTORY_SAMPLES", "300"));
+    private static final Pattern IP_LITERAL =
+            Pattern.compile("\\d{1,3}(\\.\\d{1,3}){3}|\\[?[0-9A-Fa-f:.]*:[0-9A-Fa-f:.]*]?");
     private static JLibTorrentManager instance;
-    private static final TorrentId DISCOVERY_TORRENT_ID;
-    static {
-        try {
-            byte[] hash = MessageDigest.getInstance("SHA-1")
-                    .digest("minerva-discovery".getBytes(StandardCharsets.UTF_8));
-            DISCOVERY_TORRENT_ID = TorrentId.fromBytes(hash);
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException("SHA-1 not available", e);
-        }
-    }
 
     private final BtRuntime runtime;
     private final File saveDirectory;
@@ -54,14 +79,38 @@ public class JLibTorrentManager {
     private final int dhtPort;
 
     private final Map<String, ClientInfo> activeClients = new ConcurrentHashMap<>();
-    private final Map<String, byte[]> torrentBytesCache = new ConcurrentHashMap<>();
-    private Consumer<String> downloadCompleteCallback;
+    private final DownloadQueue downloadQueue = new DownloadQueue();
+    private final TorrentFileCache torrentFiles = new TorrentFileCache(
+            Long.parseLong(System.getenv().getOrDefault("TORRENT_CACHE_MB", "16")) * 1024 * 1024);
+    private final TorrentEventBus events = new TorrentEventBus(
+            Integer.parseInt(System.getenv().getOrDefault("EVENT_HANDLER_THREADS", "2")));
 
     private DHTService dhtService;
-    private final Set<InetSocketAddress> discoveryPeers = ConcurrentHashMap.newKeySet();
+    private final IPeerRegistry peerRegistry;
+    private final IMetadataService metadataService;
+    private final TorrentRegistry torrentRegistry;
+    private final FastResumeStore fastResume;
+    private final BandwidthLimiter bandwidth;
+    private final SwarmMonitor swarmMonitor = new SwarmMonitor();
+    private final SearchPeerSourceFactory searchPeerSource = new SearchPeerSourceFactory();
+    private final SearchExtensionAgent searchExtension = new SearchExtensionAgent();
+    private DiscoveryAnnouncer discoveryAnnouncer;
+    private final DHTNodeStore dhtNodeStore;
+    private DHT mldht;
+    private final CompletableFuture<Void> dhtReady = new CompletableFuture<>();
     private final ScheduledExecutorService dhtScheduler = Executors.newSingleThreadScheduledExecutor();
+    private final AtomicBoolean shutDown = new AtomicBoolean();
     private static class ClientInfo {
         final BtClient client;
+        final StreamingPieceSelector selector;
+        final File contentRoot;
+        volatile Torrent torrent;
+        volatile FileSelection selection = FileSelection.ALL;
+        volatile boolean download;
+        volatile boolean queued;
+        volatile boolean started;
+        volatile boolean pinned;
+        volatile DownloadQueue.Priority priority = DownloadQueue.Priority.NORMAL;
         volatile String name;
         volatile long totalSize;
         volatile List<String> fileNames;
@@ -74,9 +123,26 @@ public class JLibTorrentManager {
         volatile long lastRateTime;
         volatile long downloadRate;
         volatile long uploadRate;
+        volatile long bytesDone;
+        volatile SwarmMonitor.Swarm swarm = new SwarmMonitor.Swarm();
+        volatile boolean idleSampled;
+        // What the last PROGRESS event showed; idle torrents only publish when it changes
+        volatile long publishedDone = -1;
+        volatile long publishedDownloadRate;
+        volatile long publishedUploadRate;
+        volatile int publishedPeers;
+        // Streams reading from the download; its streaming focus lasts until the last one
+        // closes and no new one opens within STREAM_IDLE_GRACE_MS
+        final AtomicInteger openStreams = new AtomicInteger();
+        final AtomicLong streamsOpened = new AtomicLong();
+        // Created on first use, so idle library seeds do not each hold a buffer
+        volatile RateHistory history;
 
-        ClientInfo(BtClient client, String name, long totalSize, List<String> fileNames) {
+        ClientInfo(BtClient client, StreamingPieceSelector selector, File contentRoot, String name,
+                   long totalSize, List<String> fileNames) {
             this.client = client;
+            this.selector = selector;
+            this.contentRoot = contentRoot;
             this.name = name;
             this.totalSize = totalSize;
             this.fileNames = fileNames != null ? fileNames : new ArrayList<>();
@@ -94,9 +160,50 @@ public class JLibTorrentManager {
         public long totalDone;
         public int peers;
         public int seeds;
+        public int leechers;
+        public double availability;
+        public int unavailablePieces;
         public String state;
         public boolean seeding;
         public boolean paused;
+        public boolean pinned;
+        public String priority;
+        public int queuePosition = -1;
+    }
+
+    /** Files of a torrent to download, by index or path. An empty selection means every file. */
+    public static class FileSelection {
+        public static final FileSelection ALL = new FileSelection(Set.of(), Set.of());
+
+        public final Set<Integer> indexes;
+        public final Set<String> names;
+
+        public FileSelection(Set<Integer> indexes, Set<String> names) {
+            this.indexes = indexes;
+            this.names = names;
+        }
+
+        /** Numbers are taken as file indexes, anything else as a file name or path. */
+        public static FileSelection of(Collection<?> files) {
+            if (files == null || files.isEmpty()) return ALL;
+            Set<Integer> indexes = new HashSet<>();
+            Set<String> names = new HashSet<>();
+            for (Object f : files) {
+                if (f instanceof Number) indexes.add(((Number) f).intValue());
+                else if (f != null) names.add(f.toString());
+            }
+            return new FileSelection(indexes, names);
+        }
+
+        public boolean isAll() {
+            return indexes.isEmpty() && names.isEmpty();
+        }
+
+        public boolean includes(int index, TorrentFile file) {
+            if (isAll() || indexes.contains(index)) return true;
+            List<String> path = file.getPathElements();
+            return names.contains(String.join("/", path)) || names.contains(path.get(path.size() - 1));
+        }
     }
 
     public static class MagnetResult {
@@ -214,20 +321,21 @@ public class JLibTorrentManager {
             @Override public int getNumOfHashingThreads() { return 2; }
         };
 
+        this.dhtNodeStore = new DHTNodeStore(dhtStateDir.toPath());
+        this.fastResume = new FastResumeStore(new File(saveDirectory, "resume").toPath());
+        this.bandwidth = new BandwidthLimiter(new File(saveDirectory, "bandwidth.json").toPath());
+        List<InetPeerAddress> bootstrapNodes = new ArrayList<>(dhtNodeStore.bootstrapNodes());
+        bootstrapNodes.add(new InetPeerAddress("dht.transmissionbt.com", 6881));
+        bootstrapNodes.add(new InetPeerAddress("dht.libtorrent.org", 25401));
+
 DHTModule dhtModule = new DHTModule(new DHTConfig() {
     @Override public boolean shouldUseRouterBootstrap() { return true; }
     @Override public int getListeningPort() { return dhtPort; }
     
     @Override
     public Collection<InetPeerAddress> getBootstrapNodes() {
-        return Arrays.asList(
-            new InetPeerAddress("dht.transmissionbt.com", 6881),
-            new InetPeerAddress("dht.libtorrent.org", 25401)
-        );
-    }
-    
-    public String getStoragePath() {
-        return dhtStateDir.getAbsolutePath();
+        // Nodes remembered from earlier sessions first, the public routers as fallback
+        return bootstrapNodes;
     }
 });
 
@@ -238,43 +346,120 @@ this.runtime = BtRuntime.builder(config)
         .module(new PeerExchangeModule())
         .module(new MinervaPortMapperModule())
         .module(new DummySelectorModule())
+        .module(new SearchPeerSourceModule(searchPeerSource))
+        .module(new SearchExtensionModule(searchExtension))
+        .module(new FastResumeModule(fastResume))
+        .module(new TrafficModule(bandwidth, swarmMonitor))
+        // The runtime lives as long as the manager; stopping the last running client
+        // (e.g. pausing it while others wait in the queue) must not shut it down
+        .disableAutomaticShutdown()
         .build();
+        this.peerRegistry = runtime.service(IPeerRegistry.class);
+        this.metadataService = runtime.service(IMetadataService.class);
+        this.torrentRegistry = runtime.service(TorrentRegistry.class);
 
         this.dhtService = runtime.service(DHTService.class);
-        if (this.dhtService != null) {
-            dhtScheduler.scheduleAtFixedRate(this::refreshDiscoveryPeers, 60, 60, TimeUnit.SECONDS);
+        DHT mldht = findMldht(dhtService);
+        if (mldht != null) {
+            this.mldht = mldht;
+            this.discoveryAnnouncer = new DiscoveryAnnouncer(mldht, dhtScheduler, listenPort);
+            dhtScheduler.scheduleWithFixedDelay(() -> dhtNodeStore.save(mldht),
+                    DHT_SAVE_INTERVAL_MIN, DHT_SAVE_INTERVAL_MIN, TimeUnit.MINUTES);
+            dhtScheduler.scheduleWithFixedDelay(this::checkDhtReady, 500, 500, TimeUnit.MILLISECONDS);
         } else {
-            logger.warn("DHTService not available – discovery will be empty");
+            logger.warn("DHT not available – discovery will be empty");
+            dhtReady.complete(null);
         }
 
         logger.info("BT runtime started. Listen port: {} (DHT port: {})", listenPort, dhtPort);
+
+        // Automatic shutdown is disabled above, so save the DHT and stop the runtime here
+        Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown, "torrent-shutdown"));
     }
 
-    private void refreshDiscoveryPeers() {
-        if (dhtService == null) return;
+    /**
+     * bt's DHTService only offers peer lookups, so the mldht instance behind it is
+     * read once here for announces, routing table persistence and readiness.
+     */
+    private static DHT findMldht(DHTService service) {
+        if (!(service instanceof MldhtService)) return null;
         try {
-            Set<InetSocketAddress> newPeers = dhtService.getPeers(DISCOVERY_TORRENT_ID)
-                    .map(p -> {
-                        try {
-                            InetAddress addr = (InetAddress) p.getClass().getMethod("getInetAddress").invoke(p);
-                            int port = (int) p.getClass().getMethod("getPort").invoke(p);
-                            return new InetSocketAddress(addr, port);
-                        } catch (Exception ex) {
-                            return null;
-                        }
-                    })
-                    .filter(Objects::nonNull)
-                    .collect(Collectors.toSet());
-            discoveryPeers.clear();
-            discoveryPeers.addAll(newPeers);
-            logger.debug("Discovered {} peers via DHT", newPeers.size());
-        } catch (Exception e) {
-            logger.debug("DHT not ready: {}", e.getMessage());
+            Field field = MldhtService.class.getDeclaredField("dht");
+            field.setAccessible(true);
+            return (DHT) field.get(service);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            logger.warn("Cannot access the mldht instance", e);
+            return null;
+        }
+    }
+
+    private void checkDhtReady() {
+        if (dhtReady.isDone()) return;
+        int entries = mldht.isRunning() ? mldht.getNode().getNumEntriesInRoutingTable() : 0;
+        if (entries >= DHT_READY_ENTRIES) {
+            logger.info("DHT routing table ready with {} nodes", entries);
+            dhtReady.complete(null);
+        }
+    }
+
+    /**
+     * Completes once the DHT routing table holds enough nodes for lookups to
+     * succeed, or right away if this runtime has no DHT.
+     */
+    public CompletableFuture<Void> dhtReady() {
+        return dhtReady;
+    }
+
+    /** Starts announcing this node and its search port on the discovery infohashes. */
+    public void startDiscoveryAnnounce(int searchPort) {
+        if (discoveryAnnouncer != null) {
+            discoveryAnnouncer.start(searchPort);
+        } else {
+            logger.warn("DHT announce not available – this node will only be found by peers it contacts");
         }
     }
 
+    /** Search endpoints ("host:searchPort") announced by other nodes on the DHT. */
     public Set<InetSocketAddress> getDiscoveryPeers() {
-        return Set.copyOf(discoveryPeers);
+        return discoveryAnnouncer != null ? discoveryAnnouncer.getSearchPeers() : Set.of();
+    }
+
+    public SearchExtensionAgent getSearchExtension() {
+        return searchExtension;
+    }
+
+    /**
+     * Records a BitTorrent endpoint that a keyword search reported for a torrent.
+     * If the torrent is already active, peer collection is triggered right away
+     * so the session connects without waiting for the next discovery round.
+     */
+    public void addSearchPeer(String hashHex, String host, int port) {
+        if (hashHex == null || hashHex.length() != 40) return;
+        // Results come from other nodes; a host name would cost a DNS lookup on the search thread
+        if (host == null || !IP_LITERAL.matcher(host).matches()) {
+            logger.debug("Ignoring search peer {}:{} for {}: not an IP address", host, port, hashHex);
+            return;
+        }
+        try {
+            TorrentId id = TorrentId.fromBytes(hexToBytes(hashHex.toLowerCase()));
+            searchPeerSource.addPeer(id, InetAddress.getByName(host), port);
+            if (activeClients.containsKey(hashHex.toLowerCase())) {
+                peerRegistry.triggerPeerCollection(id);
+            }
+        } catch (Exception e) {
+            logger.debug("Ignoring search peer {}:{} for {}: {}", host, port, hashHex, e.getMessage());
+        }
+    }
+
+    private void collectSearchPeers(String hashHex) {
+        if (hashHex.length() != 40) return;
+        TorrentId id = TorrentId.fromBytes(hexToBytes(hashHex));
+        if (!searchPeerSource.hasPeers(id)) return;
+        // The session registers itself asynchronously after startAsync, so ask
+        // once right away and once more after it has had time to become active.
+        peerRegistry.triggerPeerCollection(id);
+        dhtScheduler.schedule(() -> peerRegistry.triggerPeerCollection(id), 1, TimeUnit.SECONDS);
+        logger.info("Injected search-discovered peers for {}", hashHex);
     }
 
     public static synchronized JLibTorrentManager getInstance(File saveDirectory) {
@@ -292,8 +477,15 @@ this.runtime = BtRuntime.builder(config)
     }
 
     public int getListenPort() { return listenPort; }
-    public void setDownloadCompleteCallback(Consumer<String> callback) {
-        this.downloadCompleteCallback = callback;
+
+    /** Lifecycle events of all torrents: started, metadata resolved, progress, complete, error. */
+    public TorrentEventBus getEvents() {
+        return events;
+    }
+
+    /** Directory holding {@code <hash>.torrent} files, used to reload evicted metainfo. */
+    public void setTorrentDirectory(Path torrentDirectory) {
+        torrentFiles.setDirectory(torrentDirectory);
     }
 
     public String seedTorrent(File torrentFile) {
@@ -304,41 +496,82 @@ this.runtime = BtRuntime.builder(config)
         logger.info("seedTorrent: torrentFile={}, contentDir={}",
                 torrentFile.getAbsolutePath(), contentDirectory.getAbsolutePath());
         try {
-            com.turn.ttorrent.common.Torrent ttTorrent =
-                    com.turn.ttorrent.common.Torrent.load(torrentFile);
-            String hashHex = ttTorrent.getHexInfoHash().toLowerCase();
-            String name = ttTorrent.getName();
-            long totalSize = ttTorrent.getSize();
-            List<String> fileNames = new ArrayList<>(ttTorrent.getFilenames());
-
-            if (activeClients.containsKey(hashHex)) {
-                logger.info("Torrent already active: {} ({})", name, hashHex);
-                return hashHex;
-            }
-
-            torrentBytesCache.put(hashHex, Files.readAllBytes(torrentFile.toPath()));
+            return seedTorrent(Files.readAllBytes(torrentFile.toPath()), torrentFile.toPath(), contentDirectory,
+                    FileSelection.ALL);
+        } catch (IOException e) {
+            logger.error("Failed to seed torrent: {}", torrentFile, e);
+            throw new RuntimeException("Failed to seed torrent", e);
+        }
+    }
 
-            Storage storage = new FileSystemStorage(contentDirectory.toPath());
-            BtClient client = Bt.client(runtime)
-                    .storage(storage)
-                    .torrent(torrentFile.toURI().toURL())
-                    .build();
+    /** Seeds a torrent from its encoded metainfo, e.g. one that was just created. */
+    public String seedTorrent(byte[] torrentBytes, File contentDirectory) {
+        return seedTorrent(torrentBytes, null, contentDirectory, FileSelection.ALL);
+    }
 
-            ClientInfo info = new ClientInfo(client, name, totalSize, fileNames);
-            activeClients.put(hashHex, info);
+    /** Downloads (or seeds) only the selected files of a torrent into {@code contentDirectory}. */
+    public String seedTorrent(byte[] torrentBytes, File contentDirectory, FileSelection selection) {
+        return seedTorrent(torrentBytes, null, contentDirectory, selection);
+    }
 
-            client.startAsync(state -> updateState(info, state, hashHex), 1000);
+    private String seedTorrent(byte[] torrentBytes, Path torrentFile, File contentDirectory,
+                               FileSelection selection) {
+        Torrent torrent = metadataService.fromByteArray(torrentBytes);
+        String hashHex = HexFormat.of().formatHex(torrent.getTorrentId().getBytes());
+        String name = torrent.getName();
+        long totalSize = torrent.getSize();
+        List<String> fileNames = new ArrayList<>();
+        for (TorrentFile tf : torrent.getFiles()) {
+            fileNames.add(String.join("/", tf.getPathElements()));
+        }
 
-            logger.info("Seeding: {} (hash: {}) from {}", name, hashHex, contentDirectory);
+        if (activeClients.containsKey(hashHex)) {
+            logger.info("Torrent already active: {} ({})", name, hashHex);
             return hashHex;
+        }
 
-        } catch (IOException | NoSuchAlgorithmException e) {
-            logger.error("Failed to seed torrent: {}", torrentFile, e);
-            throw new RuntimeException("Failed to seed torrent", e);
+        torrentFiles.put(hashHex, torrentBytes, torrentFile);
+        fastResume.expect(torrent, contentDirectory.toPath());
+
+        Storage storage = new FileSystemStorage(contentDirectory.toPath());
+        StreamingPieceSelector selector = new StreamingPieceSelector();
+        var builder = Bt.client(runtime)
+                .storage(storage)
+                .torrent(() -> torrent)
+                .selector(selector);
+        if (!selection.isAll()) {
+            preallocate(torrent, contentDirectory.toPath(), selection);
+            builder.fileSelector(file -> prioritize(hashHex, file));
         }
+        BtClient client = builder.build();
+
+        ClientInfo info = new ClientInfo(client, selector, contentDirectory, name, totalSize, fileNames);
+        info.torrent = torrent;
+        info.selection = selection;
+        activeClients.put(hashHex, info);
+        watchPieces(info, torrent.getTorrentId());
+
+        startClient(hashHex, info);
+
+        logger.info("Seeding: {} (hash: {}) from {}", name, hashHex, contentDirectory);
+        return hashHex;
     }
 
     public MagnetResult seedMagnet(String magnetUri) {
+        return seedMagnet(magnetUri, FileSelection.ALL, DownloadQueue.Priority.NORMAL);
+    }
+
+    public MagnetResult seedMagnet(String magnetUri, FileSelection selection) {
+        return seedMagnet(magnetUri, selection, DownloadQueue.Priority.NORMAL);
+    }
+
+    /**
+     * Adds a magnet download that fetches only the selected files once the
+     * metadata is known. It starts right away if fewer than
+     * {@code MAX_ACTIVE_DOWNLOADS} downloads are running, otherwise it waits in
+     * the download queue at the given priority.
+     */
+    public MagnetResult seedMagnet(String magnetUri, FileSelection selection, DownloadQueue.Priority priority) {
         logger.info("seedMagnet: {}", magnetUri);
         try {
             String hashHex = extractHashFromMagnet(magnetUri).toLowerCase();
@@ -349,10 +582,12 @@ this.runtime = BtRuntime.builder(config)
             }
 
             Storage storage = new FileSystemStorage(saveDirectory.toPath());
+            StreamingPieceSelector selector = new StreamingPieceSelector();
 
-            BtClient client = Bt.client(runtime)
+            var builder = Bt.client(runtime)
                     .storage(storage)
                     .magnet(magnetUri)
+                    .selector(selector)
                     .afterTorrentFetched(torrent -> {
                         String name = torrent.getName();
                         long totalSize = torrent.getSize();
@@ -362,21 +597,31 @@ this.runtime = BtRuntime.builder(config)
                         }
                         ClientInfo info = activeClients.get(hashHex);
                         if (info != null) {
+                            info.torrent = torrent;
                             info.name = name;
                             info.totalSize = totalSize;
                             info.fileNames = fNames;
                         }
                         logger.info("Magnet metadata resolved: {} ({} files, {} bytes)",
                                 name, fNames.size(), totalSize);
-                    })
-                    .build();
+                        if (info != null) {
+                            events.publish(new TorrentEventBus.Event(TorrentEventBus.Type.METADATA, hashHex,
+                                    buildStatus(hashHex, info), null));
+                        }
+                        if (!selection.isAll()) preallocate(torrent, saveDirectory.toPath(), selection);
+                    });
+            if (!selection.isAll()) builder.fileSelector(file -> prioritize(hashHex, file));
+            BtClient client = builder.build();
 
-            ClientInfo info = new ClientInfo(client, "magnet:" + hashHex, 0, new ArrayList<>());
+            ClientInfo info = new ClientInfo(client, selector, saveDirectory, "magnet:" + hashHex, 0,
+                    new ArrayList<>());
+            info.selection = selection;
+            info.download = true;
+            info.priority = priority;
             activeClients.put(hashHex, info);
+            watchPieces(info, TorrentId.fromBytes(hexToBytes(hashHex)));
 
-            client.startAsync(state -> updateState(info, state, hashHex), 1000);
-
-            logger.info("Started magnet download: {}", hashHex);
+            startOrQueue(hashHex, info);
             return new MagnetResult(hashHex);
 
         } catch (Exception e) {
@@ -387,6 +632,7 @@ this.runtime = BtRuntime.builder(config)
 
     private void updateState(ClientInfo info, TorrentSessionState state, String hashHex) {
         info.lastState = state;
+        int peers = state.getConnectedPeers().size();
 
         long now = System.currentTimeMillis();
         long elapsed = now - info.lastRateTime;
@@ -398,21 +644,97 @@ this.runtime = BtRuntime.builder(config)
             info.lastDownloaded = dl;
             info.lastUploaded = ul;
             info.lastRateTime = now;
+            if (info.seeding && peers == 0) {
+                // Sample once more as the last peer leaves, which takes bytes done from the
+                // bitfield; after that nothing changes, so skip the bitfield copy
+                if (!info.idleSampled && sampleSwarm(hashHex, info, state)) {
+                    info.idleSampled = true;
+                    swarmMonitor.forget(info.torrent.getTorrentId());
+                }
+            } else {
+                info.idleSampled = false;
+                sampleSwarm(hashHex, info, state);
+            }
+            if (info.history == null && (info.download || peers > 0)) {
+                info.history = new RateHistory(RATE_HISTORY_SAMPLES);
+            }
+            if (info.history != null) {
+                info.history.add(now, info.downloadRate, info.uploadRate, peers, info.swarm.seeds);
+            }
         }
 
         if (state.getPiecesRemaining() == 0 && state.getPiecesTotal() > 0) {
             if (!info.seeding) {
                 info.seeding = true;
                 logger.info("Torrent {} is now seeding", hashHex);
+                // Search results only ever report seeds, which a finished torrent does not need
+                searchPeerSource.remove(TorrentId.fromBytes(hexToBytes(hashHex)));
+                if (info.download) startQueued();
             }
-            if (!info.completeFired && downloadCompleteCallback != null) {
+            if (!info.completeFired) {
                 info.completeFired = true;
-                logger.info("Download complete, firing callback: {}", hashHex);
-                new Thread(() -> downloadCompleteCallback.accept(hashHex),
-                        "DownloadComplete-" + hashHex.substring(0, Math.min(8, hashHex.length())))
-                        .start();
+                logger.info("Download complete: {}", hashHex);
+                events.publish(new TorrentEventBus.Event(TorrentEventBus.Type.COMPLETE, hashHex,
+                        buildStatus(hashHex, info), null));
+                return;
             }
         }
+        boolean active = peers > 0 || (info.download && !info.seeding && !info.paused);
+        if (!active && info.bytesDone == info.publishedDone && info.downloadRate == info.publishedDownloadRate
+                && info.uploadRate == info.publishedUploadRate && peers == info.publishedPeers) {
+            // An idle seed or paused download: nothing new to tell subscribers
+            return;
+        }
+        info.publishedDone = info.bytesDone;
+        info.publishedDownloadRate = info.downloadRate;
+        info.publishedUploadRate = info.uploadRate;
+        info.publishedPeers = peers;
+        events.publish(new TorrentEventBus.Event(TorrentEventBus.Type.PROGRESS, hashHex,
+                buildStatus(hashHex, info), null));
+    }
+
+    // Once per status update, so polling the status costs nothing extra. Returns false if
+    // the torrent's metadata or bitfield is not known yet.
+    private boolean sampleSwarm(String hashHex, ClientInfo info, TorrentSessionState state) {
+        Torrent torrent = info.torrent;
+        if (torrent == null) return false;
+        BitSet verified = verifiedPieces(torrent);
+        if (verified == null) return false;
+        int pieceCount = state.getPiecesTotal();
+        info.swarm = swarmMonitor.sample(torrent.getTorrentId(), state.getConnectedPeers(), pieceCount, verified);
+
+        long pieceLength = torrent.getChunkSize();
+        long done = verified.cardinality() * pieceLength;
+        if (pieceCount > 0 && verified.get(pieceCount - 1)) {
+            done -= (long) pieceCount * pieceLength - torrent.getSize();
+        }
+        info.bytesDone = done;
+        return true;
+    }
+
+    private BitSet verifiedPieces(Torrent torrent) {
+        try {
+            return torrentRegistry.getDescriptor(torrent.getTorrentId())
+                    .map(d -> d.getDataDescriptor().getBitfield().getBitmask())
+                    .orElse(null);
+        } catch (RuntimeException e) {
+            // data descriptor not initialized yet
+            return null;
+        }
+    }
+
+    /** Rate samples of a torrent, oldest first, or null if it is unknown. */
+    public List<RateHistory.Sample> getRateHistory(String hashHex) {
+        ClientInfo info = activeClients.get(hashHex);
+        if (info == null) return null;
+        RateHistory history = info.history;
+        return history != null ? history.samples() : List.of();
+    }
+
+    /** Connected peers of a torrent as of the last status update, or null if it is unknown. */
+    public List<SwarmMonitor.PeerInfo> getPeers(String hashHex) {
+        ClientInfo info = activeClients.get(hashHex);
+        return info != null ? info.swarm.peers : null;
     }
 
     public List<TorrentStatus> getTorrentStatuses() {
@@ -433,6 +755,9 @@ this.runtime = BtRuntime.builder(config)
         s.hash = hashHex;
         s.name = info.name;
         s.paused = info.paused;
+        s.pinned = info.pinned;
+        s.priority = info.download ? info.priority.name() : null;
+        s.queuePosition = downloadQueue.position(hashHex);
         s.seeding = info.seeding;
         s.downloadRate = info.downloadRate;
         s.uploadRate = info.uploadRate;
@@ -440,15 +765,20 @@ this.runtime = BtRuntime.builder(config)
 
         TorrentSessionState state = info.lastState;
         if (state != null) {
-            int total = state.getPiecesTotal();
+            // Pieces of skipped files do not count towards progress
+            int total = state.getPiecesNotSkipped();
             int complete = total - state.getPiecesRemaining();
             s.progress = total > 0 ? (double) complete / total : 0.0;
-            s.totalDone = (long) (s.progress * info.totalSize);
+            s.totalDone = info.bytesDone;
             s.peers = state.getConnectedPeers().size();
-            s.seeds = 0;
+            SwarmMonitor.Swarm swarm = info.swarm;
+            s.seeds = swarm.seeds;
+            s.leechers = swarm.leechers;
+            s.availability = swarm.availability;
+            s.unavailablePieces = swarm.unavailablePieces;
             s.state = info.seeding ? "SEEDING" : info.paused ? "PAUSED" : "DOWNLOADING";
         } else {
-            s.state = "STARTING";
+            s.state = info.queued ? "QUEUED" : info.paused ? "PAUSED" : "STARTING";
             s.progress = 0.0;
         }
         return s;
@@ -462,7 +792,7 @@ this.runtime = BtRuntime.builder(config)
         ClientInfo info = activeClients.get(hashHex);
         if (info == null || info.lastState == null) return 0.0;
         TorrentSessionState state = info.lastState;
-        int total = state.getPiecesTotal();
+        int total = state.getPiecesNotSkipped();
         int remaining = state.getPiecesRemaining();
         return total > 0 ? ((double) (total - remaining) / total) * 100.0 : 0.0;
     }
@@ -470,24 +800,86 @@ this.runtime = BtRuntime.builder(config)
     public void pauseTorrent(String hashHex) {
         ClientInfo info = activeClients.get(hashHex);
         if (info != null && !info.paused) {
-            info.client.stop();
-            info.paused = true;
+            boolean wasQueued;
+            synchronized (downloadQueue) {
+                wasQueued = downloadQueue.remove(hashHex);
+                info.queued = false;
+                info.started = false;
+                info.paused = true;
+            }
+            // Stopped outside the lock, bt's state listener may be waiting for it
+            if (!wasQueued && info.client.isStarted()) {
+                info.client.stop();
+            }
             logger.info("Paused torrent: {}", hashHex);
+            startQueued();
+            publishChanged(hashHex);
         }
     }
 
     public void resumeTorrent(String hashHex) {
         ClientInfo info = activeClients.get(hashHex);
         if (info != null && info.paused) {
-            info.client.startAsync(state -> updateState(info, state, hashHex), 1000);
             info.paused = false;
+            if (info.download && !info.seeding) {
+                startOrQueue(hashHex, info);
+            } else {
+                startClient(hashHex, info);
+            }
             logger.info("Resumed torrent: {}", hashHex);
+            publishChanged(hashHex);
+        }
+    }
+
+    /** Changes the priority of a download, re-queueing it at the end of that level if it is waiting. */
+    public boolean setDownloadPriority(String hashHex, DownloadQueue.Priority priority) {
+        ClientInfo info = activeClients.get(hashHex);
+        if (info == null || !info.download) return false;
+        info.priority = priority;
+        downloadQueue.setPriority(hashHex, priority);
+        publishChanged(hashHex);
+        return true;
+    }
+
+    /** Moves a waiting download to a zero-based place in the queue. */
+    public boolean moveInQueue(String hashHex, int position) {
+        ClientInfo info = activeClients.get(hashHex);
+        if (info == null || !downloadQueue.move(hashHex, position)) return false;
+        // The entry may have taken on the priority of its new neighbours
+        info.priority = queuedPriority(hashHex, info.priority);
+        publishChanged(hashHex);
+        return true;
+    }
+
+    /**
+     * Pinned downloads run regardless of the concurrency limit and do not take
+     * up one of its slots. Pinning a queued download starts it at once.
+     */
+    public boolean setPinned(String hashHex, boolean pinned) {
+        ClientInfo info = activeClients.get(hashHex);
+        if (info == null || !info.download) return false;
+        info.pinned = pinned;
+        synchronized (downloadQueue) {
+            if (pinned && info.queued) {
+                downloadQueue.remove(hashHex);
+                start(hashHex, info);
+            }
         }
+        // A running download that gets pinned frees its slot. Unpinning can leave more
+        // than the limit running, which only delays the next start.
+        startQueued();
+        publishChanged(hashHex);
+        return true;
     }
 
     public void removeTorrent(String hashHex, boolean deleteFiles) {
         ClientInfo info = activeClients.remove(hashHex);
-        torrentBytesCache.remove(hashHex);
+        torrentFiles.remove(hashHex);
+        downloadQueue.remove(hashHex);
+        clearPlaybackReserve(hashHex);
+        TorrentId torrentId = TorrentId.fromBytes(hexToBytes(hashHex));
+        swarmMonitor.forget(torrentId);
+        searchPeerSource.remove(torrentId);
         if (info != null) {
             try {
                 if (info.client.isStarted()) {
@@ -497,9 +889,151 @@ this.runtime = BtRuntime.builder(config)
                 logger.warn("Error stopping client for {}: {}", hashHex, e.getMessage());
             }
             logger.info("Removed torrent: {}", hashHex);
+            if (info.download) startQueued();
+            publishChanged(hashHex);
+        }
+    }
+
+    /**
+     * Moves the files of a complete torrent under {@code newRoot} (same layout as
+     * before) and carries on seeding it from there under the same info hash. The
+     * verified pieces are recorded for the new location first, so the restarted
+     * session trusts them instead of hashing everything again. Files are renamed
+     * while the old session is still seeding; only if the platform refuses to move
+     * open files is it stopped first. Returns false if the torrent is unknown,
+     * incomplete or only partly selected.
+     */
+    public boolean relocateTorrent(String hashHex, File newRoot) throws IOException {
+        ClientInfo info = activeClients.get(hashHex);
+        Torrent torrent = info != null ? info.torrent : null;
+        if (torrent == null || !info.seeding || !info.selection.isAll()) return false;
+
+        BitSet verified = verifiedPieces(torrent);
+        if (verified == null) return false;
+        byte[] torrentBytes = torrentFiles.get(hashHex);
+        if (torrentBytes == null) torrentBytes = encodeTorrent(torrent);
+
+        List<Path> from = FastResumeStore.contentFiles(torrent, info.contentRoot.toPath());
+        List<Path> to = FastResumeStore.contentFiles(torrent, newRoot.toPath());
+        boolean stopped = false;
+        for (int i = 0; i < from.size(); i++) {
+            if (from.get(i).equals(to.get(i))) continue;
+            Files.createDirectories(to.get(i).getParent());
+            try {
+                moveFile(from.get(i), to.get(i));
+            } catch (FileSystemException e) {
+                if (stopped) throw e;
+                logger.info("Cannot move {} while it is open, stopping {} first", from.get(i), hashHex);
+                info.client.stop();
+                stopped = true;
+                moveFile(from.get(i), to.get(i));
+            }
+        }
+        if (torrent.getFiles().size() > 1) {
+            Path oldDir = info.contentRoot.toPath().resolve(torrent.getName());
+            try (var entries = Files.list(oldDir)) {
+                if (entries.findFirst().isEmpty()) Files.delete(oldDir);
+            } catch (IOException e) {
+                logger.debug("Leaving download directory {}: {}", oldDir, e.getMessage());
+            }
+        }
+
+        fastResume.save(torrent, to, verified);
+        activeClients.remove(hashHex);
+        clearPlaybackReserve(hashHex);
+        if (!stopped && info.client.isStarted()) info.client.stop();
+        seedTorrent(torrentBytes, null, newRoot, FileSelection.ALL);
+        logger.info("Relocated {} to {} without re-hashing {} pieces", hashHex, newRoot, verified.cardinality());
+        return true;
+    }
+
+    private static void moveFile(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            // Another file system: copy, keeping the mtime the fast-resume record is checked against
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+        }
+    }
+
+    // Magnet downloads only have the info dictionary; wrapped in a dictionary of its own it
+    // makes a .torrent with the same info hash
+    private static byte[] encodeTorrent(Torrent torrent) {
+        Optional<byte[]> metadata = torrent.getSource().getMetadata();
+        if (metadata.isPresent()) return metadata.get();
+        byte[] info = torrent.getSource().getExchangedMetadata();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(info.length + 8);
+        out.writeBytes("d4:info".getBytes(StandardCharsets.US_ASCII));
+        out.writeBytes(info);
+        out.write('e');
+        return out.toByteArray();
+    }
+
+    private void startOrQueue(String hashHex, ClientInfo info) {
+        synchronized (downloadQueue) {
+            if (info.pinned || runningDownloads() < MAX_ACTIVE_DOWNLOADS) {
+                start(hashHex, info);
+            } else {
+                info.queued = true;
+                downloadQueue.add(hashHex, info.priority);
+                logger.info("Queued download {} at position {} ({} running)",
+                        hashHex, downloadQueue.position(hashHex), runningDownloads());
+                publishChanged(hashHex);
+            }
         }
     }
 
+    private void publishChanged(String hashHex) {
+        events.publish(new TorrentEventBus.Event(TorrentEventBus.Type.CHANGED, hashHex,
+                getTorrentStatus(hashHex), null));
+    }
+
+    /** Starts waiting downloads while there are free slots. */
+    private void startQueued() {
+        synchronized (downloadQueue) {
+            while (runningDownloads() < MAX_ACTIVE_DOWNLOADS) {
+                String hashHex = downloadQueue.poll();
+                if (hashHex == null) return;
+                ClientInfo info = activeClients.get(hashHex);
+                if (info != null) start(hashHex, info);
+            }
+        }
+    }
+
+    private void start(String hashHex, ClientInfo info) {
+        info.queued = false;
+        info.started = true;
+        startClient(hashHex, info);
+        collectSearchPeers(hashHex);
+        logger.info("Started magnet download: {}", hashHex);
+    }
+
+    private void startClient(String hashHex, ClientInfo info) {
+        info.client.startAsync(state -> updateState(info, state, hashHex), 1000)
+                .whenComplete((result, error) -> {
+                    if (error != null) {
+                        logger.error("Torrent {} stopped with an error", hashHex, error);
+                        events.publish(new TorrentEventBus.Event(TorrentEventBus.Type.ERROR, hashHex, null,
+                                String.valueOf(error.getMessage())));
+                    }
+                });
+        events.publish(new TorrentEventBus.Event(TorrentEventBus.Type.STARTED, hashHex,
+                buildStatus(hashHex, info), null));
+    }
+
+    private int runningDownloads() {
+        int running = 0;
+        for (ClientInfo info : activeClients.values()) {
+            if (info.download && info.started && !info.paused && !info.seeding && !info.pinned) running++;
+        }
+        return running;
+    }
+
+    private DownloadQueue.Priority queuedPriority(String hashHex, DownloadQueue.Priority fallback) {
+        DownloadQueue.Priority p = downloadQueue.priorityOf(hashHex);
+        return p != null ? p : fallback;
+    }
+
     public String getTorrentName(String hashHex) {
         ClientInfo info = activeClients.get(hashHex);
         return info != null ? info.name : null;
@@ -510,15 +1044,203 @@ this.runtime = BtRuntime.builder(config)
         return info != null ? info.fileNames : Collections.emptyList();
     }
 
+    /** File paths of the torrent that are being downloaded, i.e. all of them unless a selection was given. */
+    public List<String> getSelectedFileNames(String hashHex) {
+        ClientInfo info = activeClients.get(hashHex);
+        if (info == null) return Collections.emptyList();
+        Torrent torrent = info.torrent;
+        if (torrent == null || info.selection.isAll()) return info.fileNames;
+        List<String> selected = new ArrayList<>();
+        for (int i = 0; i < torrent.getFiles().size(); i++) {
+            TorrentFile file = torrent.getFiles().get(i);
+            if (info.selection.includes(i, file)) selected.add(String.join("/", file.getPathElements()));
+        }
+        return selected;
+    }
+
     public int getTorrentNumFiles(String hashHex) {
         ClientInfo info = activeClients.get(hashHex);
         return info != null ? info.fileNames.size() : 0;
     }
 
+    /**
+     * Switches the torrent to streaming order for one file: its pieces from
+     * {@code offset} on are fetched sequentially with a read-ahead window of
+     * {@code STREAM_READAHEAD_MB}, the rest of the torrent rarest-first.
+     * Returns false if the torrent or its metadata is not known yet.
+     */
+    public boolean prioritizeFile(String hashHex, int fileIndex, long offset) {
+        ClientInfo info = activeClients.get(hashHex);
+        Torrent torrent = info != null ? info.torrent : null;
+        if (torrent == null || fileIndex < 0 || fileIndex >= torrent.getFiles().size()) return false;
+
+        long fileStart = 0;
+        for (int i = 0; i < fileIndex; i++) fileStart += torrent.getFiles().get(i).getSize();
+        long fileSize = torrent.getFiles().get(fileIndex).getSize();
+        long pieceLength = torrent.getChunkSize();
+        long position = fileStart + Math.max(0, Math.min(offset, fileSize - 1));
+        int from = (int) (position / pieceLength);
+        int to = (int) ((fileStart + Math.max(fileSize, 1) - 1) / pieceLength);
+        info.selector.focus(from, to, (int) Math.max(1, STREAM_READ_AHEAD_BYTES / pieceLength));
+        bandwidth.setPlaybackTorrent(hashHex);
+        logger.debug("Streaming {} file {} from piece {} to {}", hashHex, fileIndex, from, to);
+        return true;
+    }
+
+    /**
+     * Opens file {@code fileIndex} of an active torrent for reading while it
+     * downloads, or returns null if the torrent or its metadata is not known yet.
+     */
+    public TorrentFileStream openFileStream(String hashHex, int fileIndex) {
+        ClientInfo info = activeClients.get(hashHex);
+        Torrent torrent = info != null ? info.torrent : null;
+        if (torrent == null || fileIndex < 0 || fileIndex >= torrent.getFiles().size()) return null;
+
+        // Same layout as FileSystemStorage: multi-file torrents live in a directory named after them
+        Path path = torrent.getFiles().size() > 1
+                ? info.contentRoot.toPath().resolve(torrent.getName())
+                : info.contentRoot.toPath();
+        long fileStart = 0;
+        for (int i = 0; i < fileIndex; i++) fileStart += torrent.getFiles().get(i).getSize();
+        TorrentFile file = torrent.getFiles().get(fileIndex);
+        for (String element : file.getPathElements()) path = path.resolve(element);
+        info.openStreams.incrementAndGet();
+        info.streamsOpened.incrementAndGet();
+        return new TorrentFileStream(this, hashHex, fileIndex, path, fileStart, file.getSize(),
+                torrent.getChunkSize(), STREAM_PIECE_TIMEOUT_MS);
+    }
+
+    boolean isPieceVerified(String hashHex, int piece) {
+        ClientInfo info = activeClients.get(hashHex);
+        Torrent torrent = info != null ? info.torrent : null;
+        if (torrent == null) return false;
+        try {
+            return torrentRegistry.getDescriptor(torrent.getTorrentId())
+                    .map(d -> d.getDataDescriptor())
+                    .map(data -> data.getBitfield().isVerified(piece))
+                    .orElse(false);
+        } catch (RuntimeException e) {
+            // data descriptor not initialized yet
+            return false;
+        }
+    }
+
+    /** Blocks until {@code piece} is verified, for at most {@code timeoutMs}. */
+    boolean awaitPiece(String hashHex, int piece, long timeoutMs) {
+        ClientInfo info = activeClients.get(hashHex);
+        if (info == null) return false;
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        synchronized (info) {
+            while (!isPieceVerified(hashHex, piece)) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0 || activeClients.get(hashHex) != info) return false;
+                try {
+                    // Also re-check now and then, pieces confirmed by the initial check fire no event
+                    info.wait(Math.min(remaining, 500));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private FilePriority prioritize(String hashHex, TorrentFile file) {
+        ClientInfo info = activeClients.get(hashHex);
+        Torrent torrent = info != null ? info.torrent : null;
+        if (torrent == null) return FilePriority.NORMAL_PRIORITY;
+        return info.selection.includes(torrent.getFiles().indexOf(file), file)
+                ? FilePriority.NORMAL_PRIORITY : FilePriority.SKIP;
+    }
+
+    /**
+     * Creates the selected files at full length without writing their content, so
+     * they take no disk space until pieces arrive. Boundary pieces are still
+     * downloaded whole by bt, which writes their overlap into the neighbouring
+     * skipped files the same way.
+     */
+    private static void preallocate(Torrent torrent, Path root, FileSelection selection) {
+        Path base = torrent.getFiles().size() > 1 ? root.resolve(torrent.getName()) : root;
+        for (int i = 0; i < torrent.getFiles().size(); i++) {
+            TorrentFile file = torrent.getFiles().get(i);
+            if (!selection.includes(i, file) || file.getSize() == 0) continue;
+            Path path = base;
+            for (String element : file.getPathElements()) path = path.resolve(element);
+            if (Files.exists(path)) continue;
+            try {
+                Files.createDirectories(path.getParent());
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                        StandardOpenOption.WRITE, StandardOpenOption.SPARSE)) {
+                    channel.write(ByteBuffer.wrap(new byte[1]), file.getSize() - 1);
+                }
+            } catch (IOException e) {
+                logger.warn("Could not preallocate {}: {}", path, e.getMessage());
+            }
+        }
+    }
+
+    private void watchPieces(ClientInfo info, TorrentId torrentId) {
+        runtime.getEventSource().onPieceVerified(torrentId, event -> {
+            synchronized (info) {
+                info.notifyAll();
+            }
+        });
+    }
+
+    /** Returns the torrent to plain rarest-first piece selection. */
+    public void clearFilePriority(String hashHex) {
+        ClientInfo info = activeClients.get(hashHex);
+        if (info != null && info.selector.isFocused()) {
+            info.selector.clearFocus();
+            logger.debug("Streaming priority cleared for {}", hashHex);
+        }
+        clearPlaybackReserve(hashHex);
+    }
+
+    // Called once per stream from TorrentFileStream.close()
+    void closeFileStream(String hashHex) {
+        ClientInfo info = activeClients.get(hashHex);
+        if (info == null) {
+            clearFilePriority(hashHex);
+            return;
+        }
+        // Never below zero: a stream opened before relocateTorrent counts against the old ClientInfo
+        if (info.openStreams.updateAndGet(n -> Math.max(0, n - 1)) > 0) return;
+        long opened = info.streamsOpened.get();
+        try {
+            dhtScheduler.schedule(() -> {
+                if (activeClients.get(hashHex) == info && info.openStreams.get() == 0
+                        && info.streamsOpened.get() == opened) {
+                    clearFilePriority(hashHex);
+                }
+            }, STREAM_IDLE_GRACE_MS, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Shutting down
+        }
+    }
+
+    /**
+     * Playback moved to a file that is already on disk, so no download needs the
+     * streaming focus or the playback reserve any more.
+     */
+    public void releasePlayback() {
+        String hashHex = bandwidth.getPlaybackTorrent();
+        if (hashHex != null) clearFilePriority(hashHex);
+    }
+
+    private void clearPlaybackReserve(String hashHex) {
+        if (hashHex.equals(bandwidth.getPlaybackTorrent())) bandwidth.setPlaybackTorrent(null);
+    }
+
+    public BandwidthLimiter getBandwidthLimiter() {
+        return bandwidth;
+    }
+
     public boolean saveTorrentFile(String hashHex, Path outputPath) {
-        byte[] bytes = torrentBytesCache.get(hashHex);
+        byte[] bytes = torrentFiles.get(hashHex);
         if (bytes == null) {
-            logger.warn("No cached torrent bytes for hash: {}", hashHex);
+            logger.warn("No torrent metainfo for hash: {}", hashHex);
             return false;
         }
         try {
@@ -533,7 +1255,11 @@ this.runtime = BtRuntime.builder(config)
     }
 
     public void shutdown() {
+        if (!shutDown.compareAndSet(false, true)) return;
         dhtScheduler.shutdownNow();
+        if (mldht != null) {
+            dhtNodeStore.save(mldht);
+        }
         logger.info("Shutting down BT runtime...");
         for (Map.Entry<String, ClientInfo> e : activeClients.entrySet()) {
             try {
@@ -545,7 +1271,8 @@ this.runtime = BtRuntime.builder(config)
             }
         }
         activeClients.clear();
-        torrentBytesCache.clear();
+        torrentFiles.clear();
+        events.shutdown();
         try {
             runtime.shutdown();
         } catch (Exception e) {
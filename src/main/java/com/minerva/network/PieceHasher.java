@@ -0,0 +1,160 @@
+package com.minerva.network;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Computes the BitTorrent piece hashes of a list of files laid end to end, as
+ * they appear in a multi-file torrent. Each file is opened once and read with
+ * positional reads, and piece ranges are hashed in parallel on a dedicated
+ * fork-join pool, so a large album uses every core instead of one stream
+ * reader. The files are closed before {@link #hashPieces} returns, so they can
+ * be moved or deleted right away (memory mappings would keep them locked on
+ * Windows until collected). Pieces that span two files are hashed across the
+ * boundary like any other.
+ */
+public class PieceHasher {
+    public static final int DEFAULT_PIECE_LENGTH = 512 * 1024;
+
+    private static final int HASH_LENGTH = 20;
+    private static final int PIECES_PER_TASK = 8;
+    private static final int READ_BUFFER = 256 * 1024;
+
+    static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    private static final ThreadLocal<ByteBuffer> buffers = ThreadLocal.withInitial(() -> ByteBuffer.allocate(READ_BUFFER));
+
+    // FileChannel positional reads are safe to share between the hashing threads
+    private final FileChannel[] channels;
+    private final long[] fileStarts;
+    private final long totalLength;
+    private final int pieceLength;
+
+    private PieceHasher(List<Path> files, int pieceLength) throws IOException {
+        this.pieceLength = pieceLength;
+        this.channels = new FileChannel[files.size()];
+        this.fileStarts = new long[files.size()];
+        long offset = 0;
+        try {
+            for (int i = 0; i < files.size(); i++) {
+                fileStarts[i] = offset;
+                channels[i] = FileChannel.open(files.get(i), StandardOpenOption.READ);
+                offset += channels[i].size();
+            }
+        } catch (IOException e) {
+            closeChannels();
+            throw e;
+        }
+        this.totalLength = offset;
+    }
+
+    /**
+     * @return the concatenated 20-byte SHA-1 of every piece of {@code files}
+     */
+    public static byte[] hashPieces(List<Path> files, int pieceLength) throws IOException {
+        PieceHasher hasher = new PieceHasher(files, pieceLength);
+        try {
+            int pieceCount = (int) ((hasher.totalLength + pieceLength - 1) / pieceLength);
+            byte[] pieces = new byte[pieceCount * HASH_LENGTH];
+            POOL.invoke(hasher.new HashRange(pieces, 0, pieceCount));
+            return pieces;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            hasher.closeChannels();
+        }
+    }
+
+    private void closeChannels() {
+        for (FileChannel channel : channels) {
+            if (channel == null) continue;
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private class HashRange extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final byte[] out;
+        private final int from;
+        private final int to;
+
+        HashRange(byte[] out, int from, int to) {
+            this.out = out;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > PIECES_PER_TASK) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new HashRange(out, from, mid), new HashRange(out, mid, to));
+                return;
+            }
+            MessageDigest sha1;
+            try {
+                sha1 = MessageDigest.getInstance("SHA-1");
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException("SHA-1 not available", e);
+            }
+            ByteBuffer buffer = buffers.get();
+            try {
+                for (int piece = from; piece < to; piece++) {
+                    long start = (long) piece * pieceLength;
+                    update(sha1, buffer, start, Math.min(pieceLength, totalLength - start));
+                    System.arraycopy(sha1.digest(), 0, out, piece * HASH_LENGTH, HASH_LENGTH);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /** Feeds {@code length} bytes starting at torrent offset {@code start} into {@code digest}. */
+    private void update(MessageDigest digest, ByteBuffer buffer, long start, long length) throws IOException {
+        int file = fileAt(start);
+        long pos = start - fileStarts[file];
+        while (length > 0) {
+            long fileEnd = file + 1 < fileStarts.length ? fileStarts[file + 1] : totalLength;
+            long fileSize = fileEnd - fileStarts[file];
+            if (pos >= fileSize) {
+                // end of this file (or an empty one), continue in the next
+                file++;
+                pos = 0;
+                continue;
+            }
+            int n = (int) Math.min(buffer.capacity(), Math.min(length, fileSize - pos));
+            buffer.clear().limit(n);
+            while (buffer.hasRemaining()) {
+                if (channels[file].read(buffer, pos + buffer.position()) < 0) {
+                    throw new EOFException("File shrank while hashing");
+                }
+            }
+            buffer.flip();
+            digest.update(buffer);
+            pos += n;
+            length -= n;
+        }
+    }
+
+    private int fileAt(long offset) {
+        int lo = 0, hi = fileStarts.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (fileStarts[mid] <= offset) lo = mid; else hi = mid - 1;
+        }
+        return lo;
+    }
+}
@@ -0,0 +1,61 @@
+package com.minerva.network;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The last {@code capacity} rate samples of a torrent in a ring buffer, so the
+ * history costs the same memory however long the torrent has been running.
+ */
+public class RateHistory {
+
+    public static class Sample {
+        public long time;
+        public long downloadRate;
+        public long uploadRate;
+        public int peers;
+        public int seeds;
+    }
+
+    private final long[] time;
+    private final long[] downloadRate;
+    private final long[] uploadRate;
+    private final int[] peers;
+    private final int[] seeds;
+    private int next;
+    private int size;
+
+    public RateHistory(int capacity) {
+        time = new long[capacity];
+        downloadRate = new long[capacity];
+        uploadRate = new long[capacity];
+        peers = new int[capacity];
+        seeds = new int[capacity];
+    }
+
+    public synchronized void add(long when, long down, long up, int peerCount, int seedCount) {
+        time[next] = when;
+        downloadRate[next] = down;
+        uploadRate[next] = up;
+        peers[next] = peerCount;
+        seeds[next] = seedCount;
+        next = (next + 1) % time.length;
+        size = Math.min(size + 1, time.length);
+    }
+
+    /** The samples, oldest first. */
+    public synchronized List<Sample> samples() {
+        List<Sample> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            int j = (next - size + i + time.length) % time.length;
+            Sample s = new Sample();
+            s.time = time[j];
+            s.downloadRate = downloadRate[j];
+            s.uploadRate = uploadRate[j];
+            s.peers = peers[j];
+            s.seeds = seeds[j];
+            list.add(s);
+        }
+        return list;
+    }
+}
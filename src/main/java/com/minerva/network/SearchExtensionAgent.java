@@ -0,0 +1,179 @@
+package com.minerva.network;
+
+import bt.net.ConnectionKey;
+import bt.protocol.Message;
+import bt.protocol.extended.ExtendedHandshake;
+import bt.torrent.annotation.Consumes;
+import bt.torrent.annotation.Produces;
+import bt.torrent.messaging.MessageContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * bt messaging agent for the {@value SearchExtensionMessage#EXTENSION_NAME} extension.
+ * Peers that advertise the extension in their extended handshake can be sent keyword
+ * queries without opening a connection to their search port, and both sides swap
+ * the Minerva nodes they know every few minutes over the same connection.
+ * <p>
+ * A peer connected through several torrents is queried only once.
+ */
+public class SearchExtensionAgent {
+    private static final Logger logger = LoggerFactory.getLogger(SearchExtensionAgent.class);
+
+    private static final long QUERY_TIMEOUT_MS = 4000;
+    private static final long GOSSIP_INTERVAL_MS = 5 * 60 * 1000;
+    // bt polls producers continuously; a connection it stopped polling is gone
+    private static final long CONNECTION_IDLE_MS = 15_000;
+    private static final int MAX_QUEUED_PER_CONNECTION = 32;
+    private static final int MAX_QUEUED_QUERIES = 64;
+
+    private final Set<ConnectionKey> capable = ConcurrentHashMap.newKeySet();
+    private final Map<ConnectionKey, Long> lastPolled = new ConcurrentHashMap<>();
+    private final Map<ConnectionKey, Long> lastGossip = new ConcurrentHashMap<>();
+    private final Map<ConnectionKey, Queue<SearchExtensionMessage>> outbox = new ConcurrentHashMap<>();
+    private final Map<Long, CompletableFuture<byte[]>> pending = new ConcurrentHashMap<>();
+    private final ExecutorService queryExecutor = new ThreadPoolExecutor(1, 2, 30, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(MAX_QUEUED_QUERIES), r -> {
+                Thread t = new Thread(r, "search-extension");
+                t.setDaemon(true);
+                return t;
+            }, new ThreadPoolExecutor.DiscardPolicy());
+
+    private volatile BiFunction<InetAddress, byte[], byte[]> queryHandler;
+    private volatile Supplier<byte[]> nodeSupplier;
+    private volatile BiConsumer<InetAddress, byte[]> nodeListener;
+
+    /** Answers an incoming query body with a response body, or {@code null} to drop it. */
+    public void setQueryHandler(BiFunction<InetAddress, byte[], byte[]> queryHandler) {
+        this.queryHandler = queryHandler;
+    }
+
+    /** Supplies the node list body sent to each peer, and receives the lists peers send us. */
+    public void setNodeGossip(Supplier<byte[]> nodeSupplier, BiConsumer<InetAddress, byte[]> nodeListener) {
+        this.nodeSupplier = nodeSupplier;
+        this.nodeListener = nodeListener;
+    }
+
+    @Consumes
+    public void consume(ExtendedHandshake handshake, MessageContext context) {
+        if (handshake.getSupportedMessageTypes().contains(SearchExtensionMessage.EXTENSION_NAME)) {
+            capable.add(context.getConnectionKey());
+        }
+    }
+
+    @Consumes
+    public void consume(SearchExtensionMessage message, MessageContext context) {
+        ConnectionKey key = context.getConnectionKey();
+        InetAddress from = key.getPeer().getInetAddress();
+        switch (message.getType()) {
+            case SearchExtensionMessage.QUERY -> {
+                BiFunction<InetAddress, byte[], byte[]> handler = queryHandler;
+                if (handler == null) return;
+                // Ranking a query must not hold up the connection's piece traffic
+                queryExecutor.execute(() -> {
+                    byte[] response = handler.apply(from, message.getBody());
+                    if (response != null) {
+                        enqueue(key, new SearchExtensionMessage(SearchExtensionMessage.RESULTS, message.getId(), response));
+                    }
+                });
+            }
+            case SearchExtensionMessage.RESULTS -> {
+                CompletableFuture<byte[]> future = pending.remove(message.getId());
+                if (future != null) future.complete(message.getBody());
+            }
+            case SearchExtensionMessage.NODES -> {
+                BiConsumer<InetAddress, byte[]> listener = nodeListener;
+                if (listener != null) listener.accept(from, message.getBody());
+            }
+            default -> logger.debug("Ignoring {} from {}", message, from);
+        }
+    }
+
+    @Produces
+    public void produce(Consumer<Message> messageConsumer, MessageContext context) {
+        ConnectionKey key = context.getConnectionKey();
+        long now = System.currentTimeMillis();
+        lastPolled.put(key, now);
+        if (!capable.contains(key)) return;
+
+        Supplier<byte[]> supplier = nodeSupplier;
+        Long gossiped = lastGossip.get(key);
+        if (supplier != null && (gossiped == null || now - gossiped > GOSSIP_INTERVAL_MS)) {
+            lastGossip.put(key, now);
+            messageConsumer.accept(new SearchExtensionMessage(SearchExtensionMessage.NODES, 0, supplier.get()));
+        }
+
+        Queue<SearchExtensionMessage> queue = outbox.get(key);
+        if (queue != null) {
+            SearchExtensionMessage message;
+            while ((message = queue.poll()) != null) {
+                messageConsumer.accept(message);
+            }
+        }
+    }
+
+    /**
+     * Returns one live connection per remote address among the peers that support
+     * the extension, dropping state for connections bt no longer services.
+     */
+    public List<ConnectionKey> getSearchConnections() {
+        long now = System.currentTimeMillis();
+        lastPolled.entrySet().removeIf(e -> {
+            if (now - e.getValue() <= CONNECTION_IDLE_MS) return false;
+            capable.remove(e.getKey());
+            lastGossip.remove(e.getKey());
+            outbox.remove(e.getKey());
+            return true;
+        });
+        Set<InetAddress> seen = new HashSet<>();
+        List<ConnectionKey> connections = new ArrayList<>();
+        for (ConnectionKey key : capable) {
+            if (lastPolled.containsKey(key) && seen.add(key.getPeer().getInetAddress())) {
+                connections.add(key);
+            }
+        }
+        return connections;
+    }
+
+    /** Sends a query body over {@code connection}; the future completes with the response body. */
+    public CompletableFuture<byte[]> query(ConnectionKey connection, byte[] request) {
+        long id = ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE);
+        CompletableFuture<byte[]> future = new CompletableFuture<>();
+        pending.put(id, future);
+        future.orTimeout(QUERY_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .whenComplete((r, e) -> pending.remove(id));
+        if (!enqueue(connection, new SearchExtensionMessage(SearchExtensionMessage.QUERY, id, request))) {
+            future.completeExceptionally(new IllegalStateException("Send queue full for " + connection));
+        }
+        return future;
+    }
+
+    private boolean enqueue(ConnectionKey key, SearchExtensionMessage message) {
+        Queue<SearchExtensionMessage> queue = outbox.computeIfAbsent(key, k -> new ConcurrentLinkedQueue<>());
+        if (queue.size() >= MAX_QUEUED_PER_CONNECTION) {
+            logger.debug("Dropping {} for {}: send queue full", message, key);
+            return false;
+        }
+        return queue.offer(message);
+    }
+}
@@ -0,0 +1,71 @@
+package com.minerva.network;
+
+import bt.bencoding.model.BEObject;
+import bt.bencoding.types.BEInteger;
+import bt.bencoding.types.BEMap;
+import bt.bencoding.types.BEString;
+import bt.protocol.extended.ExtendedMessage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Extension-protocol message that carries Minerva keyword search traffic over an
+ * already open BitTorrent connection. The body is the same JSON the search port
+ * speaks (a search request, a search response, or a list of "host:port" nodes);
+ * the bencoded envelope only adds the message type and a request id.
+ */
+public class SearchExtensionMessage extends ExtendedMessage {
+    public static final String EXTENSION_NAME = "minerva_search";
+
+    public static final int QUERY = 1;
+    public static final int RESULTS = 2;
+    public static final int NODES = 3;
+
+    private static final String TYPE_KEY = "t";
+    private static final String ID_KEY = "id";
+    private static final String BODY_KEY = "b";
+
+    private final int type;
+    private final long id;
+    private final byte[] body;
+
+    public SearchExtensionMessage(int type, long id, byte[] body) {
+        this.type = type;
+        this.id = id;
+        this.body = body;
+    }
+
+    public int getType() { return type; }
+    public long getId() { return id; }
+    public byte[] getBody() { return body; }
+
+    static SearchExtensionMessage parse(BEMap map) {
+        Map<String, BEObject<?>> values = map.getValue();
+        BEObject<?> type = values.get(TYPE_KEY);
+        BEObject<?> id = values.get(ID_KEY);
+        BEObject<?> body = values.get(BODY_KEY);
+        if (!(type instanceof BEInteger) || !(id instanceof BEInteger) || !(body instanceof BEString)) {
+            throw new IllegalArgumentException("Malformed " + EXTENSION_NAME + " message");
+        }
+        return new SearchExtensionMessage(((BEInteger) type).getValue().intValue(),
+                ((BEInteger) id).getValue().longValue(), ((BEString) body).getValue());
+    }
+
+    byte[] encode() throws IOException {
+        Map<String, BEObject<?>> values = new HashMap<>();
+        values.put(TYPE_KEY, new BEInteger(type));
+        values.put(ID_KEY, new BEInteger(id));
+        values.put(BODY_KEY, new BEString(body));
+        ByteArrayOutputStream out = new ByteArrayOutputStream(body.length + 32);
+        new BEMap(values).writeTo(out);
+        return out.toByteArray();
+    }
+
+    @Override
+    public String toString() {
+        return "[" + getClass().getSimpleName() + "] type {" + type + "}, id {" + id + "}, " + body.length + " bytes";
+    }
+}
@@ -0,0 +1,42 @@
+package com.minerva.network;
+
+import bt.bencoding.serializers.BEParser;
+import bt.net.buffer.ByteBufferView;
+import bt.protocol.DecodingContext;
+import bt.protocol.EncodingContext;
+import bt.protocol.handler.UniqueMessageHandler;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+public class SearchExtensionMessageHandler extends UniqueMessageHandler<SearchExtensionMessage> {
+
+    public SearchExtensionMessageHandler() {
+        super(SearchExtensionMessage.class);
+    }
+
+    @Override
+    protected int doDecode(DecodingContext context, ByteBufferView buffer) {
+        byte[] payload = new byte[buffer.remaining()];
+        buffer.get(payload);
+        try (BEParser parser = new BEParser(payload)) {
+            context.setMessage(SearchExtensionMessage.parse(parser.readMap()));
+        }
+        return payload.length;
+    }
+
+    @Override
+    protected boolean doEncode(EncodingContext context, SearchExtensionMessage message, ByteBuffer buffer) {
+        byte[] payload;
+        try {
+            payload = message.encode();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to encode " + message, e);
+        }
+        if (buffer.remaining() < payload.length) {
+            return false;
+        }
+        buffer.put(payload);
+        return true;
+    }
+}
@@ -0,0 +1,69 @@
+package com.minerva.network;
+
+import bt.metainfo.TorrentId;
+import bt.net.InetPeer;
+import bt.net.Peer;
+import bt.peer.PeerSource;
+import bt.peer.PeerSourceFactory;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Peer source backed by the endpoints that keyword search results reported for a
+ * torrent. A node that answered a search for an album is, by construction, seeding
+ * it, so these peers are handed to the torrent session before DHT or trackers reply.
+ * Only a bounded number of peers is kept per torrent, and only for the torrents
+ * most recently searched for or started; a torrent's entry is dropped once it
+ * completes or is removed.
+ */
+public class SearchPeerSourceFactory implements PeerSourceFactory {
+    private static final int MAX_PEERS_PER_TORRENT = 50;
+    private static final int MAX_TORRENTS = 512;
+
+    private final Map<TorrentId, Set<Peer>> knownPeers = Collections.synchronizedMap(
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<TorrentId, Set<Peer>> eldest) {
+                    return size() > MAX_TORRENTS;
+                }
+            });
+
+    public void addPeer(TorrentId torrentId, InetAddress address, int port) {
+        Set<Peer> peers = knownPeers.computeIfAbsent(torrentId, k -> ConcurrentHashMap.newKeySet());
+        if (peers.size() < MAX_PEERS_PER_TORRENT) peers.add(InetPeer.build(address, port));
+    }
+
+    /** Forgets a torrent's peers, e.g. once it has completed or been removed. */
+    public void remove(TorrentId torrentId) {
+        knownPeers.remove(torrentId);
+    }
+
+    public boolean hasPeers(TorrentId torrentId) {
+        Set<Peer> peers = knownPeers.get(torrentId);
+        return peers != null && !peers.isEmpty();
+    }
+
+    @Override
+    public PeerSource getPeerSource(TorrentId torrentId) {
+        return new PeerSource() {
+            @Override
+            public boolean update() {
+                return hasPeers(torrentId);
+            }
+
+            @Override
+            public Collection<Peer> getPeers() {
+                // PeerRegistry removes entries while iterating, so hand out a mutable copy
+                Set<Peer> peers = knownPeers.get(torrentId);
+                return peers != null ? new ArrayList<>(peers) : new ArrayList<>();
+            }
+        };
+    }
+}
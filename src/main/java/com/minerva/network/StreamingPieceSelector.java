@@ -0,0 +1,74 @@
+package com.minerva.network;
+
+import bt.torrent.PieceStatistics;
+import bt.torrent.selector.PieceSelector;
+import bt.torrent.selector.RarestFirstSelector;
+
+import java.util.BitSet;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Piece selector for a torrent that may be played while it downloads. Without a
+ * focus it is bt's randomized rarest-first. With a focus (the pieces of the file
+ * being played, from the playback position on) the next {@code readAhead}
+ * focused pieces a peer can offer come first, in order, and everything else
+ * follows rarest-first. bt never offers pieces that are already verified, so the
+ * window slides forward by itself as pieces complete.
+ */
+public class StreamingPieceSelector implements PieceSelector {
+    private final PieceSelector fallback = RarestFirstSelector.randomizedRarest();
+    private volatile Focus focus;
+
+    private static class Focus {
+        final int from;
+        final int to;
+        final int readAhead;
+
+        Focus(int from, int to, int readAhead) {
+            this.from = from;
+            this.to = to;
+            this.readAhead = readAhead;
+        }
+    }
+
+    /** Downloads pieces {@code from..to} (inclusive) sequentially, {@code readAhead} at a time. */
+    public void focus(int from, int to, int readAhead) {
+        this.focus = new Focus(from, to, Math.max(1, readAhead));
+    }
+
+    /** Back to plain rarest-first. */
+    public void clearFocus() {
+        this.focus = null;
+    }
+
+    public boolean isFocused() {
+        return focus != null;
+    }
+
+    @Override
+    public void initSelector(int totalPieces) {
+        fallback.initSelector(totalPieces);
+    }
+
+    @Override
+    public IntStream getNextPieces(BitSet pieces, PieceStatistics stats) {
+        Focus f = focus;
+        if (f == null) return fallback.getNextPieces(pieces, stats);
+
+        BitSet window = new BitSet();
+        int n = 0;
+        for (int i = pieces.nextSetBit(f.from); i >= 0 && i <= f.to && n < f.readAhead; i = pieces.nextSetBit(i + 1)) {
+            window.set(i);
+            n++;
+        }
+        if (window.isEmpty()) return fallback.getNextPieces(pieces, stats);
+
+        BitSet rest = (BitSet) pieces.clone();
+        rest.andNot(window);
+        // Ordering the rest by rarity is costly, so only do it if the window is used up
+        return Stream.<Supplier<IntStream>>of(window::stream, () -> fallback.getNextPieces(rest, stats))
+                .flatMapToInt(Supplier::get);
+    }
+}
@@ -0,0 +1,146 @@
+package com.minerva.network;
+
+import bt.metainfo.TorrentId;
+import bt.net.ConnectionKey;
+import bt.protocol.Bitfield;
+import bt.protocol.Have;
+import bt.protocol.Message;
+import bt.protocol.Piece;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-peer view of each swarm, built from the messages the dispatcher passes
+ * on: which pieces a peer has (BITFIELD and HAVE) and how many block bytes went
+ * each way (PIECE). bt keeps this to itself, so it is tracked here. A
+ * {@link Swarm} summary is taken once per status update, never per request.
+ */
+public class SwarmMonitor {
+
+    public static class PeerInfo {
+        public String address;
+        public int port;
+        public boolean seed;
+        public double progress;
+        public long downloadRate;
+        public long uploadRate;
+        public long downloaded;
+        public long uploaded;
+    }
+
+    public static class Swarm {
+        public int seeds;
+        public int leechers;
+        /** Distributed copies: complete copies among connected peers plus the share of pieces beyond that. */
+        public double availability;
+        /** Pieces we are missing that no connected peer has. */
+        public int unavailablePieces;
+        public List<PeerInfo> peers = new ArrayList<>();
+    }
+
+    private static class PeerState {
+        final BitSet pieces = new BitSet();
+        final AtomicLong downloaded = new AtomicLong();
+        final AtomicLong uploaded = new AtomicLong();
+        long sampledDownloaded;
+        long sampledUploaded;
+        long sampledAt = System.currentTimeMillis();
+    }
+
+    private final Map<TorrentId, Map<ConnectionKey, PeerState>> swarms = new ConcurrentHashMap<>();
+
+    void onReceived(ConnectionKey key, Message message) {
+        if (message instanceof Piece) {
+            peer(key).downloaded.addAndGet(((Piece) message).getLength());
+        } else if (message instanceof Have) {
+            PeerState peer = peer(key);
+            synchronized (peer.pieces) {
+                peer.pieces.set(((Have) message).getPieceIndex());
+            }
+        } else if (message instanceof Bitfield) {
+            byte[] bytes = ((Bitfield) message).getBitfield();
+            PeerState peer = peer(key);
+            synchronized (peer.pieces) {
+                // The wire format puts piece 0 in the high bit of the first byte
+                for (int i = 0; i < bytes.length * 8; i++) {
+                    if ((bytes[i >> 3] & (0x80 >> (i & 7))) != 0) peer.pieces.set(i);
+                }
+            }
+        }
+    }
+
+    void onSent(ConnectionKey key, Message message) {
+        if (message instanceof Piece) {
+            peer(key).uploaded.addAndGet(((Piece) message).getLength());
+        }
+    }
+
+    /**
+     * Summarizes the swarm of a torrent with {@code pieceCount} pieces, of which we
+     * have {@code local}. Peers that are no longer in {@code connected} are dropped.
+     */
+    public Swarm sample(TorrentId torrentId, Set<ConnectionKey> connected, int pieceCount, BitSet local) {
+        Swarm swarm = new Swarm();
+        if (pieceCount <= 0) return swarm;
+        Map<ConnectionKey, PeerState> peers = swarms.computeIfAbsent(torrentId, id -> new ConcurrentHashMap<>());
+        peers.keySet().retainAll(connected);
+
+        int[] copies = new int[pieceCount];
+        long now = System.currentTimeMillis();
+        for (ConnectionKey key : connected) {
+            // A peer that has sent nothing yet has no pieces as far as we know
+            PeerState state = peers.computeIfAbsent(key, k -> new PeerState());
+            int have;
+            synchronized (state.pieces) {
+                have = state.pieces.cardinality();
+                for (int i = state.pieces.nextSetBit(0); i >= 0 && i < pieceCount; i = state.pieces.nextSetBit(i + 1)) {
+                    copies[i]++;
+                }
+            }
+            PeerInfo info = new PeerInfo();
+            info.address = key.getPeer().getInetAddress().getHostAddress();
+            info.port = key.getPeer().getPort();
+            info.seed = have >= pieceCount;
+            info.progress = Math.min(1.0, (double) have / pieceCount);
+            info.downloaded = state.downloaded.get();
+            info.uploaded = state.uploaded.get();
+            long elapsed = now - state.sampledAt;
+            if (elapsed > 0) {
+                info.downloadRate = (info.downloaded - state.sampledDownloaded) * 1000 / elapsed;
+                info.uploadRate = (info.uploaded - state.sampledUploaded) * 1000 / elapsed;
+            }
+            state.sampledDownloaded = info.downloaded;
+            state.sampledUploaded = info.uploaded;
+            state.sampledAt = now;
+            if (info.seed) swarm.seeds++;
+            else swarm.leechers++;
+            swarm.peers.add(info);
+        }
+
+        int min = Integer.MAX_VALUE;
+        for (int c : copies) min = Math.min(min, c);
+        int aboveMin = 0;
+        for (int i = 0; i < pieceCount; i++) {
+            if (copies[i] > min) aboveMin++;
+            if (copies[i] == 0 && !local.get(i)) swarm.unavailablePieces++;
+        }
+        swarm.availability = min + (double) aboveMin / pieceCount;
+        return swarm;
+    }
+
+    /** Forgets a torrent's peers, e.g. once it is removed. */
+    public void forget(TorrentId torrentId) {
+        swarms.remove(torrentId);
+    }
+
+    private PeerState peer(ConnectionKey key) {
+        return swarms.computeIfAbsent(key.getTorrentId(), id -> new ConcurrentHashMap<>())
+                .computeIfAbsent(key, k -> new PeerState());
+    }
+}
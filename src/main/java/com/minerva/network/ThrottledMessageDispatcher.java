@@ -0,0 +1,86 @@
+package com.minerva.network;
+
+import bt.net.ConnectionKey;
+import bt.net.IMessageDispatcher;
+import bt.net.IPeerConnectionPool;
+import bt.net.MessageDispatcher;
+import bt.protocol.Message;
+import bt.protocol.Piece;
+import bt.protocol.Request;
+import bt.runtime.Config;
+import bt.service.IRuntimeLifecycleBinder;
+import bt.torrent.TorrentRegistry;
+import com.google.inject.Inject;
+
+import java.util.HexFormat;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * bt's message dispatcher with bandwidth limits applied to outgoing messages.
+ * An outgoing {@link Piece} is charged as upload; an outgoing {@link Request} is
+ * charged as download for the block it asks for, which paces what peers send
+ * us. A message that is over the limit is held back, and the dispatcher polls
+ * its supplier again later. Everything else passes straight through.
+ * Messages going either way are also reported to the {@link SwarmMonitor}.
+ */
+public class ThrottledMessageDispatcher implements IMessageDispatcher {
+    private final IMessageDispatcher delegate;
+    private final BandwidthLimiter limiter;
+    private final SwarmMonitor swarmMonitor;
+
+    @Inject
+    public ThrottledMessageDispatcher(IRuntimeLifecycleBinder lifecycleBinder, IPeerConnectionPool pool,
+                                      TorrentRegistry torrentRegistry, Config config, BandwidthLimiter limiter,
+                                      SwarmMonitor swarmMonitor) {
+        this.delegate = new MessageDispatcher(lifecycleBinder, pool, torrentRegistry, config);
+        this.limiter = limiter;
+        this.swarmMonitor = swarmMonitor;
+    }
+
+    @Override
+    public void addMessageConsumer(ConnectionKey connectionKey, Consumer<Message> messageConsumer) {
+        delegate.addMessageConsumer(connectionKey, message -> {
+            swarmMonitor.onReceived(connectionKey, message);
+            messageConsumer.accept(message);
+        });
+    }
+
+    @Override
+    public void addMessageSupplier(ConnectionKey connectionKey, Supplier<Message> messageSupplier) {
+        delegate.addMessageSupplier(connectionKey, new ThrottledSupplier(connectionKey, messageSupplier));
+    }
+
+    // Only called from the dispatcher's own thread, so the held message needs no locking
+    private class ThrottledSupplier implements Supplier<Message> {
+        private final ConnectionKey connectionKey;
+        private final String hashHex;
+        private final Supplier<Message> source;
+        private Message held;
+
+        ThrottledSupplier(ConnectionKey connectionKey, Supplier<Message> source) {
+            this.connectionKey = connectionKey;
+            this.hashHex = HexFormat.of().formatHex(connectionKey.getTorrentId().getBytes());
+            this.source = source;
+        }
+
+        @Override
+        public Message get() {
+            Message message = held != null ? held : source.get();
+            held = null;
+            if (message instanceof Piece) {
+                if (!limiter.tryAcquire(hashHex, BandwidthLimiter.Direction.UPLOAD, ((Piece) message).getLength())) {
+                    held = message;
+                    return null;
+                }
+            } else if (message instanceof Request) {
+                if (!limiter.tryAcquire(hashHex, BandwidthLimiter.Direction.DOWNLOAD, ((Request) message).getLength())) {
+                    held = message;
+                    return null;
+                }
+            }
+            if (message != null) swarmMonitor.onSent(connectionKey, message);
+            return message;
+        }
+    }
+}
@@ -4,22 +4,19 @@ import com.minerva.model.Album;
 import com.minerva.model.MusicFile;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import com.turn.ttorrent.common.Torrent;
 import java.net.URI;
 import java.io.*;
 
-import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.nio.file.attribute.PosixFilePermission;
 import java.nio.file.attribute.PosixFilePermissions;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.time.LocalDateTime;
 import java.util.*;
-import java.util.stream.Collectors;
 
 public class TorrentCreator {
     private static final Logger logger = LoggerFactory.getLogger(TorrentCreator.class);
+    private static final Set<String> AUDIO_EXTENSIONS = Set.of("mp3", "flac", "wav", "m4a", "ogg");
+    private static final Set<String> COVER_NAMES = Set.of("cover.jpg", "cover.png");
     
     private final Path torrentFilesDir;
     private final Path libraryDir;
@@ -45,52 +42,22 @@ public class TorrentCreator {
         );
     }
 
-    private Path findContentInLibrary(TorrentMetadata metadata) throws IOException {
-        String artist = sanitizeFileName(metadata.getArtist());
-        String album = sanitizeFileName(metadata.getAlbum());
-        Path artistDir = libraryDir.resolve(artist);
-        if (!Files.exists(artistDir)) return null;
-        Path albumDir = artistDir.resolve(album);
-        return Files.exists(albumDir) ? albumDir : null;
+    private URI trackerUri() throws IOException {
+        List<String> trackers = getTrackerUrls();
+        if (trackers.isEmpty()) throw new IOException("No trackers configured");
+        return URI.create(trackers.get(0));
     }
 
-    private void createTorrentFile(TorrentMetadata metadata, Path outputPath, List<File> albumFiles) throws IOException {
-        logger.info("Creating torrent file: {}", outputPath);
-        try {
-            List<String> trackers = getTrackerUrls();
-            if (trackers.isEmpty()) throw new IOException("No trackers configured");
-            URI trackerURI = URI.create(trackers.get(0));
-
-            Torrent torrent;
-            if (metadata.getTorrentType() == TorrentMetadata.TorrentType.SINGLE) {
-                Path contentDir = findContentInLibrary(metadata);
-                Path filePath = contentDir.resolve(metadata.getTrackInfo().getFileName());
-                logger.info("Single torrent source file: {}", filePath);
-                torrent = Torrent.create(filePath.toFile(), trackerURI, "Minerva");
-            } else {
-                Path contentDir = findContentInLibrary(metadata);
-                List<File> normalizedFiles = new ArrayList<>();
-                File normalizedParent = contentDir.toRealPath().toFile();
-                for (File f : albumFiles) {
-                    File normalized = f.toPath().toRealPath().toFile();
-                    normalizedFiles.add(normalized);
-                }
-                logger.info("Multi-file torrent parent: {}", normalizedParent);
-                logger.info("Files to include: {}", normalizedFiles.stream().map(File::getName).collect(Collectors.joining(", ")));
-                torrent = Torrent.create(normalizedParent, normalizedFiles, trackerURI, "Minerva");
-            }
-
-            try (OutputStream os = new FileOutputStream(outputPath.toFile())) {
-                torrent.save(os);
-            }
-            logger.info("Torrent file created successfully");
+    private Path createAlbumDirectory(TorrentMetadata metadata) throws IOException {
+        Path albumDir = libraryDir.resolve(sanitizeFileName(metadata.getArtist()))
+                .resolve(sanitizeFileName(metadata.getAlbum()));
+        Files.createDirectories(albumDir);
+        return albumDir;
+    }
 
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            throw new IOException("Torrent creation interrupted", e);
-        } catch (NoSuchAlgorithmException e) {
-            throw new IOException("Hash algorithm unavailable", e);
-        }
+    private boolean isTorrentContent(Path file) {
+        String name = file.getFileName().toString().toLowerCase();
+        return AUDIO_EXTENSIONS.contains(getFileExtension(file.toFile())) || COVER_NAMES.contains(name);
     }
 
     private void createDirectories() {
@@ -102,21 +69,10 @@ public class TorrentCreator {
         }
     }
 
-    private String bytesToHex(byte[] bytes) {
-        StringBuilder sb = new StringBuilder();
-        for (byte b : bytes) {
-            sb.append(String.format("%02x", b));
-        }
-        return sb.toString();
-    }
-    
     public TorrentMetadata createSingleTorrent(MusicFile musicFile, File audioFile,
                                            String uploaderNodeId) throws IOException {
         logger.info("Creating single torrent for file: {}", audioFile.getName());
         TorrentMetadata metadata = new TorrentMetadata();
-
-        String tempId = UUID.randomUUID().toString();
-        metadata.setTorrentId(tempId);
         metadata.setTorrentType(TorrentMetadata.TorrentType.SINGLE);
         metadata.setArtist(musicFile.getArtist());
         metadata.setTitle(musicFile.getTitle());
@@ -137,30 +93,22 @@ public class TorrentCreator {
         trackInfo.setDuration(musicFile.getDuration());
         trackInfo.setBitrate(musicFile.getBitrate());
         trackInfo.setFileName(generateFileName(musicFile, getFileExtension(audioFile)));
-        trackInfo.setFileHash(generateFileHash(audioFile));
         metadata.setTrackInfo(trackInfo);
 
-        byte[] fileContent = Files.readAllBytes(audioFile.toPath());
-        metadata.setTorrentHash(generateSha1Hash(fileContent));
-
         logger.info("Copying file to library");
-        copyToLibrary(Collections.singletonList(audioFile), metadata);
-
-        Path tempTorrentPath = torrentFilesDir.resolve(tempId + ".torrent");
-        createTorrentFile(metadata, tempTorrentPath, null);
-        Torrent torrent;
-        try {
-            torrent = Torrent.load(tempTorrentPath.toFile());
-        } catch (NoSuchAlgorithmException e) {
-            throw new IOException("SHA-1 algorithm not available", e);
+        Path destFile = createAlbumDirectory(metadata).resolve(String.format("%02d_%s.%s",
+                getTrackNumberInt(trackInfo) != null ? getTrackNumberInt(trackInfo) : 1,
+                sanitizeFileName(trackInfo.getTitle()),
+                getFileExtension(audioFile)));
+        byte[] pieces;
+        try (UploadPipeline pipeline = new UploadPipeline()) {
+            trackInfo.setFileHash(pipeline.copy(audioFile.toPath(), destFile, true));
+            pieces = pipeline.finish();
         }
-        String infoHash = bytesToHex(torrent.getInfoHash());
-        metadata.setTorrentHash(infoHash);
-
-        Path finalTorrentPath = torrentFilesDir.resolve(infoHash + ".torrent");
-        Files.move(tempTorrentPath, finalTorrentPath, StandardCopyOption.REPLACE_EXISTING);
-        metadata.setTorrentId(infoHash);
+        setFilePermissions(destFile);
+        logger.debug("Copied single file to: {}", destFile);
 
+        String infoHash = writeTorrent(metadata, TorrentMetainfo.create(destFile, pieces, trackerUri(), "Minerva"));
         logger.info("Single torrent created, hash: {}", infoHash);
         return metadata;
     }
@@ -168,9 +116,7 @@ public class TorrentCreator {
     public TorrentMetadata createAlbumTorrent(Album album, List<File> audioFiles,
                                           String uploaderNodeId) throws IOException {
         logger.info("Creating album torrent with {} files", audioFiles.size());
-        String tempId = UUID.randomUUID().toString();
         TorrentMetadata metadata = new TorrentMetadata();
-        metadata.setTorrentId(tempId);
         metadata.setTorrentType(TorrentMetadata.TorrentType.ALBUM);
         metadata.setArtist(album.getArtist());
         metadata.setTitle(album.getTitle());
@@ -195,133 +141,88 @@ public class TorrentCreator {
             trackInfo.setDuration(musicFile.getDuration());
             trackInfo.setBitrate(musicFile.getBitrate());
             trackInfo.setFileName(generateFileName(musicFile, getFileExtension(audioFile)));
-            trackInfo.setFileHash(generateFileHash(audioFile));
 
             tracks.add(trackInfo);
         }
         metadata.setTracks(tracks);
 
-        byte[] combined = String.join("", tracks.stream()
-                .map(TorrentMetadata.TrackInfo::getFileHash)
-                .collect(Collectors.toList()))
-                .getBytes(StandardCharsets.UTF_8);
-        metadata.setTorrentHash(generateSha1Hash(combined));
-
-        logger.info("Copying album files to library");
-        copyToLibrary(audioFiles, metadata);
-
-        Path albumDir = findContentInLibrary(metadata);
-        if (albumDir == null) {
-            throw new IOException("Album directory not found after copy");
+        Path albumDir = createAlbumDirectory(metadata);
+        Map<Path, Integer> uploads = new HashMap<>();
+        for (int i = 0; i < audioFiles.size(); i++) {
+            TorrentMetadata.TrackInfo track = tracks.get(i);
+            Integer trackNumber = getTrackNumberInt(track);
+            Integer discNumber = getDiscNumberInt(track);
+            String fileName = String.format("%02d_%02d_%s.%s",
+                discNumber != null ? discNumber : 1,
+                trackNumber != null ? trackNumber : i + 1,
+                sanitizeFileName(track.getTitle()),
+                getFileExtension(audioFiles.get(i)));
+            uploads.put(albumDir.resolve(fileName), i);
         }
 
-        List<File> libraryFiles = new ArrayList<>();
-        Set<String> audioExtensions = new HashSet<>(Arrays.asList("mp3", "flac", "wav", "m4a", "ogg"));
-        Set<String> coverNames = new HashSet<>(Arrays.asList("cover.jpg", "cover.png"));
+        // The torrent holds every audio file and cover in the album directory, in name
+        // order, so the new files and any already there are streamed in that order.
+        TreeMap<String, Path> content = new TreeMap<>();
         try (DirectoryStream<Path> stream = Files.newDirectoryStream(albumDir)) {
             for (Path entry : stream) {
-                if (Files.isRegularFile(entry)) {
-                    String fileName = entry.getFileName().toString();
-                    String ext = getFileExtension(entry.toFile()).toLowerCase();
-                    if (audioExtensions.contains(ext) || coverNames.contains(fileName.toLowerCase())) {
-                        libraryFiles.add(entry.toFile());
-                    }
+                if (Files.isRegularFile(entry) && isTorrentContent(entry)) {
+                    content.put(entry.getFileName().toString(), entry);
                 }
             }
         }
-
-        if (libraryFiles.isEmpty()) {
+        for (Path dest : uploads.keySet()) {
+            if (isTorrentContent(dest)) content.put(dest.getFileName().toString(), dest);
+        }
+        if (content.isEmpty()) {
             throw new IOException("No audio files found in album directory: " + albumDir);
         }
 
-        libraryFiles.sort(Comparator.comparing(File::getName));
-        logger.info("Found {} audio files for album torrent: {}", libraryFiles.size(), albumDir);
-
-        Path tempTorrentPath = torrentFilesDir.resolve(tempId + ".torrent");
-        createTorrentFile(metadata, tempTorrentPath, libraryFiles);
-
-        Torrent torrent;
-        try {
-            torrent = Torrent.load(tempTorrentPath.toFile());
-        } catch (NoSuchAlgorithmException e) {
-            throw new IOException("SHA-1 algorithm not available", e);
+        logger.info("Copying album files to library");
+        byte[] pieces;
+        try (UploadPipeline pipeline = new UploadPipeline()) {
+            for (Map.Entry<Path, Integer> upload : uploads.entrySet()) {
+                if (!isTorrentContent(upload.getKey())) {
+                    tracks.get(upload.getValue()).setFileHash(
+                            pipeline.copy(audioFiles.get(upload.getValue()).toPath(), upload.getKey(), false));
+                }
+            }
+            for (Path file : content.values()) {
+                Integer upload = uploads.get(file);
+                if (upload != null) {
+                    tracks.get(upload).setFileHash(pipeline.copy(audioFiles.get(upload).toPath(), file, true));
+                } else {
+                    pipeline.add(file);
+                }
+            }
+            pieces = pipeline.finish();
         }
-        String infoHash = bytesToHex(torrent.getInfoHash());
-        metadata.setTorrentHash(infoHash);
-
-        Path finalTorrentPath = torrentFilesDir.resolve(infoHash + ".torrent");
-        Files.move(tempTorrentPath, finalTorrentPath, StandardCopyOption.REPLACE_EXISTING);
-        metadata.setTorrentId(infoHash);
+        for (Path dest : uploads.keySet()) {
+            setFilePermissions(dest);
+        }
+        logger.info("Copied {} files to library: {}/{}",
+            uploads.size(), metadata.getArtist(), metadata.getAlbum());
+        logger.info("Album torrent has {} files: {}", content.size(), albumDir);
 
+        String infoHash = writeTorrent(metadata, TorrentMetainfo.create(albumDir, new ArrayList<>(content.values()),
+                pieces, trackerUri(), "Minerva"));
         logger.info("Album torrent created, hash: {}", infoHash);
         return metadata;
     }
 
-    private String generateSha1Hash(byte[] data) {
-        try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-1");
-            byte[] hash = digest.digest(data);
-            StringBuilder hexString = new StringBuilder();
-            for (byte b : hash) {
-                hexString.append(String.format("%02x", b));
-            }
-            return hexString.toString();
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException("SHA-1 algorithm not available", e);
-        }
-    }
-    
-    private void copyToLibrary(List<File> sourceFiles, TorrentMetadata metadata) 
-            throws IOException {
-        
-        Path artistDir = libraryDir.resolve(sanitizeFileName(metadata.getArtist()));
-        Files.createDirectories(artistDir);
-        
-        Path albumDir = artistDir.resolve(sanitizeFileName(metadata.getAlbum()));
-        Files.createDirectories(albumDir);
-        
-        if (metadata.getTorrentType() == TorrentMetadata.TorrentType.SINGLE) {
-            File sourceFile = sourceFiles.get(0);
-            TorrentMetadata.TrackInfo track = metadata.getTrackInfo();
-            
-            Integer trackNumber = getTrackNumberInt(track);
-            Integer discNumber = getDiscNumberInt(track);
-            
-            String fileName = String.format("%02d_%s.%s",
-                trackNumber != null ? trackNumber : 1,
-                sanitizeFileName(track.getTitle()),
-                getFileExtension(sourceFile));
-            
-            Path destFile = albumDir.resolve(fileName);
-            Files.copy(sourceFile.toPath(), destFile, StandardCopyOption.REPLACE_EXISTING);
-            setFilePermissions(destFile);
-            logger.debug("Copied single file to: {}", destFile);
-            
-        } else {
-            for (int i = 0; i < sourceFiles.size(); i++) {
-                File sourceFile = sourceFiles.get(i);
-                TorrentMetadata.TrackInfo track = metadata.getTracks().get(i);
-                
-                Integer trackNumber = getTrackNumberInt(track);
-                Integer discNumber = getDiscNumberInt(track);
-                
-                String fileName = String.format("%02d_%02d_%s.%s",
-                    discNumber != null ? discNumber : 1,
-                    trackNumber != null ? trackNumber : i + 1,
-                    sanitizeFileName(track.getTitle()),
-                    getFileExtension(sourceFile));
-                
-                Path destFile = albumDir.resolve(fileName);
-                Files.copy(sourceFile.toPath(), destFile, StandardCopyOption.REPLACE_EXISTING);
-                setFilePermissions(destFile);
-                logger.debug("Copied album file to: {}", destFile);
-            }
-        }
-        
-        logger.info("Copied {} files to library: {}/{}", 
-            sourceFiles.size(), metadata.getArtist(), metadata.getAlbum());
+    /**
+     * Writes {@code metainfo} as {@code <infohash>.torrent}, computing the hash in
+     * memory, and records the hash and encoded bytes on {@code metadata}.
+     */
+    private String writeTorrent(TorrentMetadata metadata, TorrentMetainfo metainfo) throws IOException {
+        String infoHash = metainfo.infoHash();
+        byte[] encoded = metainfo.encode();
+        Files.write(torrentFilesDir.resolve(infoHash + ".torrent"), encoded);
+        metadata.setTorrentHash(infoHash);
+        metadata.setTorrentId(infoHash);
+        metadata.setTorrentBytes(encoded);
+        return infoHash;
     }
-    
+
     private Integer getTrackNumberInt(TorrentMetadata.TrackInfo track) {
         return parseStringToInt(track.getTrackNumber());
     }
@@ -370,29 +271,6 @@ public class TorrentCreator {
         }
     }
     
-    private String generateFileHash(File file) throws IOException {
-        try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            
-            try (InputStream is = Files.newInputStream(file.toPath())) {
-                byte[] buffer = new byte[8192];
-                int read;
-                while ((read = is.read(buffer)) > 0) {
-                    digest.update(buffer, 0, read);
-                }
-            }
-            
-            byte[] hash = digest.digest();
-            StringBuilder hexString = new StringBuilder();
-            for (byte b : hash) {
-                hexString.append(String.format("%02x", b));
-            }
-            return hexString.toString();
-        } catch (NoSuchAlgorithmException e) {
-            throw new IOException("SHA-256 algorithm not available", e);
-        }
-    }
-    
     private long calculateTotalSize(List<File> files) {
         return files.stream()
             .mapToLong(File::length)
@@ -13,8 +13,11 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class TorrentDownloader {
     private static final Logger logger = LoggerFactory.getLogger(TorrentDownloader.class);
@@ -42,54 +45,40 @@ public class TorrentDownloader {
             .magnet(magnetUri)
             .build();
         
-        AtomicReference<Path> downloadedContent = new AtomicReference<>();
-        AtomicReference<Exception> downloadError = new AtomicReference<>();
+        CompletableFuture<Path> downloadedContent = new CompletableFuture<>();
         
         activeDownloads.put(torrentHash, client);
         downloadProgress.put(torrentHash, 0.0);
         
-        Thread downloadThread = new Thread(() -> {
-            try {
-                client.startAsync(state -> {
-                    torrentStates.put(torrentHash, state);
-                    
-                    long downloaded = state.getDownloaded();
-                    long total = state.getPiecesTotal() * 16384L;
-                    double progress = total > 0 ? (double) downloaded / total : 0.0;
-                    downloadProgress.put(torrentHash, progress);
-                    
-                    if (state.getPiecesComplete() == state.getPiecesTotal()) {
-                        try {
-                            downloadedContent.set(findDownloadedContent());
-                        } catch (IOException e) {
-                            downloadError.set(e);
-                        }
-                    }
-                }, 1000).join();
-            } catch (Exception e) {
-                downloadError.set(e);
-            } finally {
-                activeDownloads.remove(torrentHash);
-                downloadProgress.remove(torrentHash);
-                torrentStates.remove(torrentHash);
+        // bt drives the state listener from its own scheduler, so no thread of our own is needed
+        client.startAsync(state -> {
+            torrentStates.put(torrentHash, state);
+            
+            long downloaded = state.getDownloaded();
+            long total = state.getPiecesTotal() * 16384L;
+            double progress = total > 0 ? (double) downloaded / total : 0.0;
+            downloadProgress.put(torrentHash, progress);
+            
+            if (state.getPiecesComplete() == state.getPiecesTotal() && !downloadedContent.isDone()) {
+                try {
+                    downloadedContent.complete(findDownloadedContent());
+                } catch (IOException e) {
+                    downloadedContent.completeExceptionally(e);
+                }
             }
+        }, 1000).whenComplete((result, error) -> {
+            if (error != null) downloadedContent.completeExceptionally(error);
+            activeDownloads.remove(torrentHash);
+            downloadProgress.remove(torrentHash);
+            torrentStates.remove(torrentHash);
         });
         
-        downloadThread.start();
-        
         try {
-            downloadThread.join(300000);
-            
-            if (downloadError.get() != null) {
-                throw new IOException("Download failed", downloadError.get());
-            }
-            
-            if (downloadedContent.get() == null) {
-                throw new IOException("Download timeout or incomplete");
-            }
-            
-            return downloadedContent.get();
-            
+            return downloadedContent.get(300, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            throw new IOException("Download failed", e.getCause());
+        } catch (TimeoutException e) {
+            throw new IOException("Download timeout or incomplete");
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
             throw new IOException("Download interrupted", e);
@@ -0,0 +1,148 @@
+package com.minerva.network;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Torrent lifecycle events, delivered in the order they were published. A
+ * single dispatch thread hands every event to each subscriber's own queue, and
+ * those queues are drained one event at a time on a small shared worker pool.
+ * So each subscriber sees events in order, and a slow subscriber (a library
+ * import) does not hold up the others. When a subscriber falls far behind,
+ * its pending PROGRESS events are dropped; other events are always delivered.
+ */
+public class TorrentEventBus {
+    private static final Logger logger = LoggerFactory.getLogger(TorrentEventBus.class);
+    private static final int MAX_PENDING = 1024;
+
+    /** CHANGED covers queueing, pausing, resuming, pinning, reprioritizing and removal. */
+    public enum Type { STARTED, METADATA, PROGRESS, COMPLETE, ERROR, CHANGED }
+
+    public static class Event {
+        public final Type type;
+        public final String hash;
+        /** Status at the time of the event, null for ERROR and for CHANGED once removed. */
+        public final JLibTorrentManager.TorrentStatus status;
+        /** Cause of an ERROR, null otherwise. */
+        public final String error;
+
+        public Event(Type type, String hash, JLibTorrentManager.TorrentStatus status, String error) {
+            this.type = type;
+            this.hash = hash;
+            this.status = status;
+            this.error = error;
+        }
+    }
+
+    public interface Handler {
+        void handle(Event event) throws Exception;
+    }
+
+    private class Subscriber implements Runnable {
+        final String name;
+        final Set<Type> types;
+        final Handler handler;
+        final ArrayDeque<Event> pending = new ArrayDeque<>();
+        boolean scheduled;
+
+        Subscriber(String name, Set<Type> types, Handler handler) {
+            this.name = name;
+            this.types = types;
+            this.handler = handler;
+        }
+
+        synchronized void offer(Event event) {
+            if (event.type == Type.PROGRESS && pending.size() >= MAX_PENDING) {
+                pending.removeIf(e -> e.type == Type.PROGRESS);
+                logger.warn("Event subscriber {} is falling behind, dropped progress events", name);
+            }
+            pending.add(event);
+            if (!scheduled) schedule();
+        }
+
+        // Called with the lock held
+        private void schedule() {
+            try {
+                workers.execute(this);
+                scheduled = true;
+            } catch (RejectedExecutionException e) {
+                scheduled = false;
+            }
+        }
+
+        @Override
+        public void run() {
+            Event event;
+            synchronized (this) {
+                event = pending.poll();
+            }
+            try {
+                handler.handle(event);
+            } catch (Exception e) {
+                logger.warn("Event subscriber {} failed on {} for {}", name, event.type, event.hash, e);
+            }
+            synchronized (this) {
+                if (pending.isEmpty()) {
+                    scheduled = false;
+                } else {
+                    schedule();
+                }
+            }
+        }
+    }
+
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+    private final ExecutorService dispatcher = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "torrent-events");
+        t.setDaemon(true);
+        return t;
+    });
+    // Each subscriber has at most one task queued here, so the queue stays as small as the subscriber list
+    private final ExecutorService workers;
+
+    public TorrentEventBus(int workerThreads) {
+        AtomicInteger count = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(workerThreads, workerThreads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread t = new Thread(r, "torrent-event-handler-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+    }
+
+    /** Delivers events of the given types to {@code handler}; no types means all of them. */
+    public void subscribe(String name, Handler handler, Type... types) {
+        Set<Type> wanted = types.length == 0 ? EnumSet.allOf(Type.class) : EnumSet.of(types[0], types);
+        subscribers.add(new Subscriber(name, wanted, handler));
+    }
+
+    public void publish(Event event) {
+        try {
+            dispatcher.execute(() -> {
+                for (Subscriber s : subscribers) {
+                    if (s.types.contains(event.type)) s.offer(event);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            logger.debug("Event bus shut down, dropping {} for {}", event.type, event.hash);
+        }
+    }
+
+    public void shutdown() {
+        dispatcher.shutdown();
+        workers.shutdown();
+    }
+}
@@ -0,0 +1,86 @@
+package com.minerva.network;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Encoded {@code .torrent} files by info hash, held in a least-recently-used cache
+ * bounded by total size. Only the path each torrent was seeded from is kept for
+ * good. Evicted or never-loaded entries are read back from that file, or from
+ * {@code <hash>.torrent} in the torrent directory, when they are asked for.
+ */
+public class TorrentFileCache {
+    private static final Logger logger = LoggerFactory.getLogger(TorrentFileCache.class);
+
+    private final long maxBytes;
+    private final Map<String, Path> sources = new ConcurrentHashMap<>();
+    private final LinkedHashMap<String, byte[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+    private volatile Path directory;
+
+    public TorrentFileCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /** Directory searched for {@code <hash>.torrent} when no source file is known. */
+    public void setDirectory(Path directory) {
+        this.directory = directory;
+    }
+
+    /** Caches {@code data} for {@code hashHex}; {@code source} is the file it came from, if any. */
+    public void put(String hashHex, byte[] data, Path source) {
+        if (source != null) sources.put(hashHex, source);
+        cache(hashHex, data);
+    }
+
+    /** The encoded torrent, loading it from disk on a miss, or null if it cannot be found. */
+    public byte[] get(String hashHex) {
+        synchronized (this) {
+            byte[] data = entries.get(hashHex);
+            if (data != null) return data;
+        }
+        Path file = sources.get(hashHex);
+        if (file == null && directory != null) file = directory.resolve(hashHex + ".torrent");
+        if (file == null || !Files.isRegularFile(file)) return null;
+        try {
+            byte[] data = Files.readAllBytes(file);
+            cache(hashHex, data);
+            return data;
+        } catch (IOException e) {
+            logger.warn("Failed to reload .torrent for {} from {}", hashHex, file, e);
+            return null;
+        }
+    }
+
+    public synchronized void remove(String hashHex) {
+        sources.remove(hashHex);
+        byte[] old = entries.remove(hashHex);
+        if (old != null) bytes -= old.length;
+    }
+
+    public synchronized void clear() {
+        sources.clear();
+        entries.clear();
+        bytes = 0;
+    }
+
+    private synchronized void cache(String hashHex, byte[] data) {
+        byte[] old = entries.put(hashHex, data);
+        if (old != null) bytes -= old.length;
+        bytes += data.length;
+        Iterator<Map.Entry<String, byte[]>> it = entries.entrySet().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, byte[]> eldest = it.next();
+            bytes -= eldest.getValue().length;
+            it.remove();
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.minerva.network;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads one file of a torrent that may still be downloading. Bytes are only
+ * returned from verified pieces. A read that reaches a missing piece moves the
+ * torrent's streaming focus there and blocks until the piece arrives, failing
+ * with an {@link IOException} if it takes longer than the timeout. Skipping is
+ * free, so range requests can start anywhere in the file. Closing the stream
+ * releases the focus once no other stream of the torrent is open.
+ */
+public class TorrentFileStream extends InputStream {
+    private final JLibTorrentManager manager;
+    private final String hashHex;
+    private final int fileIndex;
+    private final Path file;
+    private final long fileStart;
+    private final long length;
+    private final long pieceLength;
+    private final long timeoutMs;
+
+    private FileChannel channel;
+    private long position;
+    private boolean focused;
+    private boolean closed;
+
+    TorrentFileStream(JLibTorrentManager manager, String hashHex, int fileIndex, Path file,
+                      long fileStart, long length, long pieceLength, long timeoutMs) {
+        this.manager = manager;
+        this.hashHex = hashHex;
+        this.fileIndex = fileIndex;
+        this.file = file;
+        this.fileStart = fileStart;
+        this.length = length;
+        this.pieceLength = pieceLength;
+        this.timeoutMs = timeoutMs;
+    }
+
+    public long length() {
+        return length;
+    }
+
+    public String getFileName() {
+        return file.getFileName().toString();
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        if (position >= length) return -1;
+
+        long offset = fileStart + position;
+        int piece = (int) (offset / pieceLength);
+        if (!focused) {
+            manager.prioritizeFile(hashHex, fileIndex, position);
+            focused = true;
+        }
+        if (!manager.isPieceVerified(hashHex, piece)) {
+            manager.prioritizeFile(hashHex, fileIndex, position);
+            if (!manager.awaitPiece(hashHex, piece, timeoutMs)) {
+                throw new IOException("Timed out waiting for piece " + piece + " of " + hashHex);
+            }
+        }
+
+        long pieceEnd = (piece + 1) * pieceLength - fileStart;
+        int n = (int) Math.min(len, Math.min(pieceEnd, length) - position);
+        if (channel == null) {
+            if (!Files.exists(file)) throw new IOException("File not allocated yet: " + file);
+            channel = FileChannel.open(file, StandardOpenOption.READ);
+        }
+        int read = channel.read(ByteBuffer.wrap(b, off, n), position);
+        if (read > 0) position += read;
+        return read;
+    }
+
+    @Override
+    public long skip(long n) {
+        long skipped = Math.max(0, Math.min(n, length - position));
+        position += skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        // The last stream of a torrent to close gives up its streaming focus and playback reserve
+        manager.closeFileStream(hashHex);
+        if (channel != null) channel.close();
+    }
+}
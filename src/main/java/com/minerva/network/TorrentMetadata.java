@@ -1,5 +1,6 @@
 package com.minerva.network;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import java.time.LocalDateTime;
@@ -81,6 +82,10 @@ public class TorrentMetadata {
     @JsonProperty("minerva_suffix")
     private final boolean minervaSuffix = true;
 
+    // The encoded .torrent as written, so it can be seeded without reading it back
+    @JsonIgnore
+    private byte[] torrentBytes;
+
     public String getTorrentId() { return torrentId; }
     public void setTorrentId(String torrentId) { this.torrentId = torrentId; }
     
@@ -130,6 +135,10 @@ public class TorrentMetadata {
     public void setPieceSize(Integer pieceSize) { this.pieceSize = pieceSize; }
     
     public boolean isMinervaSuffix() { return minervaSuffix; }
+
+    @JsonIgnore
+    public byte[] getTorrentBytes() { return torrentBytes; }
+    public void setTorrentBytes(byte[] torrentBytes) { this.torrentBytes = torrentBytes; }
     
     public static String formatTorrentName(String artist, String title, TorrentType type) {
         String typeStr = type == TorrentType.SINGLE ? "SINGLE" : "ALBUM";
@@ -0,0 +1,132 @@
+package com.minerva.network;
+
+import bt.bencoding.model.BEObject;
+import bt.bencoding.types.BEInteger;
+import bt.bencoding.types.BEList;
+import bt.bencoding.types.BEMap;
+import bt.bencoding.types.BEString;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds the bencoded {@code .torrent} for files already in the library, hashing
+ * pieces with {@link PieceHasher} unless the caller already has them. The layout matches what ttorrent's
+ * {@code Torrent.create} produced: a single file is named after itself, several
+ * files are listed relative to their parent directory, which names the torrent.
+ */
+public class TorrentMetainfo {
+    private final String name;
+    private final List<List<String>> paths;
+    private final List<Long> lengths;
+    private final boolean singleFile;
+    private final int pieceLength;
+    private final byte[] pieces;
+    private final URI announce;
+    private final String createdBy;
+    private final long creationDate;
+
+    private TorrentMetainfo(String name, List<List<String>> paths, List<Long> lengths, boolean singleFile,
+                            int pieceLength, byte[] pieces, URI announce, String createdBy) {
+        this.name = name;
+        this.paths = paths;
+        this.lengths = lengths;
+        this.singleFile = singleFile;
+        this.pieceLength = pieceLength;
+        this.pieces = pieces;
+        this.announce = announce;
+        this.createdBy = createdBy;
+        this.creationDate = System.currentTimeMillis() / 1000;
+    }
+
+    /** Metainfo for a single-file torrent. */
+    public static TorrentMetainfo create(Path file, URI announce, String createdBy) throws IOException {
+        return create(file, PieceHasher.hashPieces(List.of(file), PieceHasher.DEFAULT_PIECE_LENGTH), announce, createdBy);
+    }
+
+    /** Metainfo for a single-file torrent whose piece hashes are already known. */
+    public static TorrentMetainfo create(Path file, byte[] pieces, URI announce, String createdBy) throws IOException {
+        String name = file.getFileName().toString();
+        return new TorrentMetainfo(name, List.of(List.of(name)), List.of(Files.size(file)), true,
+                PieceHasher.DEFAULT_PIECE_LENGTH, pieces, announce, createdBy);
+    }
+
+    /** Metainfo for a multi-file torrent named after {@code parent}, with files in the given order. */
+    public static TorrentMetainfo create(Path parent, List<Path> files, URI announce, String createdBy) throws IOException {
+        return create(parent, files, PieceHasher.hashPieces(files, PieceHasher.DEFAULT_PIECE_LENGTH), announce, createdBy);
+    }
+
+    /** Multi-file metainfo whose piece hashes are already known. */
+    public static TorrentMetainfo create(Path parent, List<Path> files, byte[] pieces, URI announce,
+                                         String createdBy) throws IOException {
+        List<List<String>> paths = new ArrayList<>();
+        List<Long> lengths = new ArrayList<>();
+        for (Path file : files) {
+            List<String> elements = new ArrayList<>();
+            for (Path element : parent.relativize(file)) elements.add(element.toString());
+            paths.add(elements);
+            lengths.add(Files.size(file));
+        }
+        return new TorrentMetainfo(parent.getFileName().toString(), paths, lengths, false,
+                PieceHasher.DEFAULT_PIECE_LENGTH, pieces, announce, createdBy);
+    }
+
+    /** The complete bencoded {@code .torrent}. */
+    public byte[] encode() throws IOException {
+        Map<String, BEObject<?>> root = new HashMap<>();
+        root.put("announce", new BEString(announce.toString()));
+        root.put("created by", new BEString(createdBy));
+        root.put("creation date", new BEInteger(creationDate));
+        root.put("info", infoMap());
+        return write(new BEMap(root));
+    }
+
+    /** The info hash in hex: the SHA-1 of the bencoded info dictionary. */
+    public String infoHash() throws IOException {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-1").digest(write(infoMap()));
+            StringBuilder hex = new StringBuilder();
+            for (byte b : hash) hex.append(String.format("%02x", b));
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-1 algorithm not available", e);
+        }
+    }
+
+    private BEMap infoMap() {
+        Map<String, BEObject<?>> info = new HashMap<>();
+        info.put("name", new BEString(name));
+        info.put("piece length", new BEInteger(pieceLength));
+        info.put("pieces", new BEString(pieces));
+        if (singleFile) {
+            info.put("length", new BEInteger(lengths.get(0)));
+        } else {
+            List<BEMap> files = new ArrayList<>();
+            for (int i = 0; i < paths.size(); i++) {
+                Map<String, BEObject<?>> file = new HashMap<>();
+                file.put("length", new BEInteger(lengths.get(i)));
+                List<BEString> path = new ArrayList<>();
+                for (String element : paths.get(i)) path.add(new BEString(element));
+                file.put("path", new BEList(path));
+                files.add(new BEMap(file));
+            }
+            info.put("files", new BEList(files));
+        }
+        return new BEMap(info);
+    }
+
+    private static byte[] write(BEObject<?> value) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        value.writeTo(out);
+        return out.toByteArray();
+    }
+}
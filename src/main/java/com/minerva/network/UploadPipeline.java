@@ -0,0 +1,137 @@
+package com.minerva.network;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Copies uploaded files into the library in a single read. Each chunk read from
+ * the source is written to the destination and fed to the file's SHA-256 as it
+ * passes. It is also collected into piece-sized direct buffers, which are hashed
+ * with SHA-1 on the {@link PieceHasher} pool while reading continues. Files are
+ * added in torrent order, so pieces run on across file boundaries. Buffers come
+ * from a small shared pool, which also caps how far reading can get ahead of
+ * hashing.
+ */
+public class UploadPipeline implements AutoCloseable {
+    private static final int PIECE_LENGTH = PieceHasher.DEFAULT_PIECE_LENGTH;
+    private static final int MAX_BUFFERS = 2 * Runtime.getRuntime().availableProcessors() + 2;
+
+    private static final BlockingQueue<ByteBuffer> freeBuffers = new LinkedBlockingQueue<>();
+    private static final AtomicInteger allocatedBuffers = new AtomicInteger();
+
+    private final List<ForkJoinTask<byte[]>> pieces = new ArrayList<>();
+    private ByteBuffer current;
+
+    /**
+     * Copies {@code source} to {@code dest}, replacing it, and returns the SHA-256
+     * of the content in hex. When {@code inTorrent} is false the file is only
+     * copied and hashed, and does not become part of the piece stream.
+     */
+    public String copy(Path source, Path dest, boolean inTorrent) throws IOException {
+        MessageDigest sha256;
+        try {
+            sha256 = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-256 algorithm not available", e);
+        }
+        try (FileChannel out = FileChannel.open(dest, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            stream(source, out, sha256, inTorrent);
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : sha256.digest()) hex.append(String.format("%02x", b));
+        return hex.toString();
+    }
+
+    /** Adds a file that is already in place to the piece stream. */
+    public void add(Path file) throws IOException {
+        stream(file, null, null, true);
+    }
+
+    /** Hashes the final partial piece and returns the concatenated piece SHA-1s. */
+    public byte[] finish() {
+        if (current != null && current.position() > 0) submitPiece();
+        byte[] out = new byte[pieces.size() * 20];
+        for (int i = 0; i < pieces.size(); i++) {
+            System.arraycopy(pieces.get(i).join(), 0, out, i * 20, 20);
+        }
+        return out;
+    }
+
+    @Override
+    public void close() {
+        if (current != null) {
+            release(current);
+            current = null;
+        }
+    }
+
+    private void stream(Path source, FileChannel out, MessageDigest sha256, boolean inTorrent) throws IOException {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+            // Files outside the torrent never hold a pooled buffer, so they cannot starve the pool
+            ByteBuffer scratch = inTorrent ? null : ByteBuffer.allocate(64 * 1024);
+            while (true) {
+                ByteBuffer buf = inTorrent ? currentBuffer() : scratch.clear();
+                int start = buf.position();
+                int n = in.read(buf);
+                if (n < 0) break;
+                ByteBuffer chunk = buf.duplicate().limit(start + n).position(start);
+                if (sha256 != null) sha256.update(chunk.duplicate());
+                if (out != null) {
+                    while (chunk.hasRemaining()) out.write(chunk);
+                }
+                if (inTorrent && !buf.hasRemaining()) submitPiece();
+            }
+        }
+    }
+
+    private ByteBuffer currentBuffer() throws IOException {
+        if (current == null) current = acquire();
+        return current;
+    }
+
+    private void submitPiece() {
+        ByteBuffer piece = current.flip();
+        current = null;
+        pieces.add(PieceHasher.POOL.submit(() -> {
+            try {
+                MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+                sha1.update(piece);
+                return sha1.digest();
+            } finally {
+                release(piece);
+            }
+        }));
+    }
+
+    private static ByteBuffer acquire() throws IOException {
+        ByteBuffer buf = freeBuffers.poll();
+        if (buf != null) return buf.clear();
+        if (allocatedBuffers.incrementAndGet() <= MAX_BUFFERS) {
+            return ByteBuffer.allocateDirect(PIECE_LENGTH);
+        }
+        allocatedBuffers.decrementAndGet();
+        try {
+            return freeBuffers.take().clear();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for a hashing buffer");
+        }
+    }
+
+    private static void release(ByteBuffer buf) {
+        freeBuffers.offer(buf);
+    }
+}
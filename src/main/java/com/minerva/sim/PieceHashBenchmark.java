@@ -0,0 +1,123 @@
+package com.minerva.sim;
+
+import ch.qos.logback.classic.Level;
+import com.minerva.network.TorrentMetainfo;
+import com.minerva.network.UploadPipeline;
+import com.turn.ttorrent.common.Torrent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Compares album torrent creation through ttorrent's {@code Torrent.create} with
+ * {@link TorrentMetainfo} (used when importing downloads) and with the
+ * {@link UploadPipeline} stream hasher (used for uploads). Writes a synthetic
+ * album of random files, builds the torrent each way, checks that the info
+ * hashes agree and prints the throughput of each path. Files are hashed warm, from the page cache, so the numbers show
+ * CPU cost rather than disk speed.
+ *
+ * <pre>
+ * java -cp target/minerva-1.0.0.jar com.minerva.sim.PieceHashBenchmark files=12 size=128 runs=3
+ * </pre>
+ *
+ * Options (key=value): files, size (MB per file), runs, seed.
+ */
+public class PieceHashBenchmark {
+    private static final URI ANNOUNCE = URI.create("udp://tracker.opentrackr.org:1337/announce");
+
+    public static void main(String[] args) throws Exception {
+        ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq > 0) options.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+        int fileCount = Integer.parseInt(options.getOrDefault("files", "12"));
+        int sizeMb = Integer.parseInt(options.getOrDefault("size", "128"));
+        int runs = Integer.parseInt(options.getOrDefault("runs", "3"));
+        Random random = new Random(Long.parseLong(options.getOrDefault("seed", "42")));
+
+        Path album = Files.createTempDirectory("minerva-hash-bench");
+        try {
+            List<Path> files = new ArrayList<>();
+            // Odd sizes so pieces straddle file boundaries
+            byte[] block = new byte[1 << 20];
+            for (int i = 0; i < fileCount; i++) {
+                Path file = album.resolve(String.format("%02d_track.flac", i + 1));
+                try (OutputStream out = Files.newOutputStream(file)) {
+                    for (int mb = 0; mb < sizeMb; mb++) {
+                        random.nextBytes(block);
+                        out.write(block);
+                    }
+                    out.write(block, 0, random.nextInt(block.length));
+                }
+                files.add(file);
+            }
+            long totalBytes = 0;
+            for (Path f : files) totalBytes += Files.size(f);
+            List<File> ioFiles = files.stream().map(Path::toFile).toList();
+
+            System.out.printf("Album: %d files, %.1f MB, %d cores%n",
+                    fileCount, totalBytes / 1e6, Runtime.getRuntime().availableProcessors());
+
+            // Warm-up pass through both paths, also fills the page cache
+            String expected = Torrent.create(album.toFile(), ioFiles, ANNOUNCE, "bench").getHexInfoHash();
+            String actual = new Torrent(TorrentMetainfo.create(album, files, ANNOUNCE, "bench").encode(), false)
+                    .getHexInfoHash();
+            if (!expected.equals(actual)) {
+                throw new IllegalStateException("Info hash mismatch: ttorrent " + expected + ", native " + actual);
+            }
+            String streamed = TorrentMetainfo.create(album, files, streamPieces(files), ANNOUNCE, "bench").infoHash();
+            if (!expected.equals(streamed)) {
+                throw new IllegalStateException("Info hash mismatch: ttorrent " + expected + ", pipeline " + streamed);
+            }
+
+            long ttorrentNanos = Long.MAX_VALUE;
+            long nativeNanos = Long.MAX_VALUE;
+            long pipelineNanos = Long.MAX_VALUE;
+            for (int run = 0; run < runs; run++) {
+                long start = System.nanoTime();
+                Torrent.create(album.toFile(), ioFiles, ANNOUNCE, "bench");
+                ttorrentNanos = Math.min(ttorrentNanos, System.nanoTime() - start);
+
+                start = System.nanoTime();
+                TorrentMetainfo.create(album, files, ANNOUNCE, "bench").encode();
+                nativeNanos = Math.min(nativeNanos, System.nanoTime() - start);
+
+                start = System.nanoTime();
+                TorrentMetainfo.create(album, files, streamPieces(files), ANNOUNCE, "bench").encode();
+                pipelineNanos = Math.min(pipelineNanos, System.nanoTime() - start);
+            }
+
+            System.out.printf("Info hash %s (identical)%n", expected);
+            System.out.printf("ttorrent:  %7.0f ms  %7.1f MB/s%n", ttorrentNanos / 1e6, totalBytes / 1e6 / (ttorrentNanos / 1e9));
+            System.out.printf("native:    %7.0f ms  %7.1f MB/s  (%.1fx)%n", nativeNanos / 1e6,
+                    totalBytes / 1e6 / (nativeNanos / 1e9), (double) ttorrentNanos / nativeNanos);
+            System.out.printf("pipeline:  %7.0f ms  %7.1f MB/s  (%.1fx)%n", pipelineNanos / 1e6,
+                    totalBytes / 1e6 / (pipelineNanos / 1e9), (double) ttorrentNanos / pipelineNanos);
+        } finally {
+            try (var paths = Files.walk(album)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(p -> {
+                    try {
+                        Files.delete(p);
+                    } catch (IOException ignored) {}
+                });
+            }
+        }
+    }
+
+    private static byte[] streamPieces(List<Path> files) throws IOException {
+        try (UploadPipeline pipeline = new UploadPipeline()) {
+            for (Path file : files) pipeline.add(file);
+            return pipeline.finish();
+        }
+    }
+}
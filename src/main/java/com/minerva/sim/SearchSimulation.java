@@ -0,0 +1,294 @@
+package com.minerva.sim;
+
+import ch.qos.logback.classic.Level;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.minerva.dht.DHTKeywordManager;
+import com.minerva.dht.KeywordSearchClient;
+import com.minerva.dht.KeywordSearchServer;
+import com.minerva.library.LibraryManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process multi-node harness for keyword search. Starts N nodes, each with its
+ * own {@link LibraryManager} over a synthetic catalog, a {@link KeywordSearchServer}
+ * and a {@link DHTKeywordManager}, runs a scripted query workload and prints latency
+ * percentiles, peer queries per search and thread counts. No network access needed.
+ *
+ * <p>Every node listens on the same search port, as in a real deployment, but on its
+ * own loopback address (127.1.x.y). Linux and Windows route all of 127/8 to loopback;
+ * on macOS the addresses have to be aliased on lo0 first.
+ *
+ * <p>Admission is only partly exercised. Clients do not bind to their node's
+ * address, so every query arrives from 127.0.0.1, and loopback requesters are exempt
+ * from the per-IP limits of {@link com.minerva.dht.AdmissionController}. Only the
+ * global limit can reject queries here; per-IP behaviour needs separate hosts.
+ *
+ * <pre>
+ * java -cp target/minerva-1.0.0.jar com.minerva.sim.SearchSimulation nodes=200 queries=500
+ * </pre>
+ *
+ * Options (key=value): nodes, albums (per node), tracks (per album), queries,
+ * concurrency, fanout (initially known peers per node), port, seed.
+ */
+public class SearchSimulation {
+    private static final Logger logger = LoggerFactory.getLogger(SearchSimulation.class);
+
+    private static final String[] GENRES = {
+            "Rock", "Jazz", "Electronic", "Classical", "Hip Hop", "Folk", "Metal", "Ambient", "Blues", "Pop"
+    };
+    private static final String[] WORDS = {
+            "the", "night", "blue", "river", "echo", "light", "fire", "dream", "stone", "wild",
+            "silver", "ghost", "ocean", "storm", "golden", "shadow", "city", "winter", "heart", "machine",
+            "velvet", "crystal", "desert", "thunder", "garden", "midnight", "paper", "northern", "electric", "hollow"
+    };
+
+    private final int nodeCount;
+    private final int albumsPerNode;
+    private final int tracksPerAlbum;
+    private final int queryCount;
+    private final int concurrency;
+    private final int fanout;
+    private final int searchPort;
+    private final Random random;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final List<Node> nodes = new ArrayList<>();
+    private Path root;
+
+    private static class Node {
+        final InetAddress address;
+        final LibraryManager library;
+        final DHTKeywordManager dht;
+        final KeywordSearchServer server;
+
+        Node(InetAddress address, LibraryManager library, DHTKeywordManager dht, KeywordSearchServer server) {
+            this.address = address;
+            this.library = library;
+            this.dht = dht;
+            this.server = server;
+        }
+    }
+
+    public SearchSimulation(Map<String, String> options) {
+        this.nodeCount = intOption(options, "nodes", 50);
+        this.albumsPerNode = intOption(options, "albums", 20);
+        this.tracksPerAlbum = intOption(options, "tracks", 10);
+        this.queryCount = intOption(options, "queries", 200);
+        this.concurrency = intOption(options, "concurrency", 4);
+        this.fanout = intOption(options, "fanout", 8);
+        this.searchPort = intOption(options, "port", 14568);
+        this.random = new Random(intOption(options, "seed", 42));
+    }
+
+    public static void main(String[] args) throws Exception {
+        // Per-query and per-file logging drowns the report with hundreds of nodes
+        for (String name : new String[]{Logger.ROOT_LOGGER_NAME, "com.minerva.dht", "com.minerva.library", "com.minerva.network"}) {
+            ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(name)).setLevel(Level.WARN);
+        }
+
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq > 0) options.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+
+        SearchSimulation sim = new SearchSimulation(options);
+        try {
+            sim.startNodes();
+            sim.runWorkload();
+        } finally {
+            sim.shutdown();
+        }
+    }
+
+    private void startNodes() throws IOException {
+        root = Files.createTempDirectory("minerva-sim");
+        List<Map<String, Object>> albumPool = buildAlbumPool(Math.max(1, nodeCount * albumsPerNode / 2));
+
+        for (int i = 0; i < nodeCount; i++) {
+            InetAddress address = InetAddress.getByAddress(new byte[]{127, 1, (byte) (i / 250), (byte) (i % 250 + 1)});
+            Path nodeDir = root.resolve("node-" + i);
+            Path libraryDir = nodeDir.resolve("library");
+            Path torrentFilesDir = nodeDir.resolve("torrent_files");
+            writeCatalog(nodeDir.resolve("torrents"), libraryDir, albumPool);
+
+            LibraryManager library = new LibraryManager(null, libraryDir, torrentFilesDir);
+            library.loadLibraryFromTorrents();
+
+            DHTKeywordManager dht = new DHTKeywordManager(searchPort, null, new HashSet<>());
+            KeywordSearchServer server = new KeywordSearchServer(address, searchPort, library, 6881, dht);
+            server.start();
+            nodes.add(new Node(address, library, dht, server));
+        }
+
+        for (Node node : nodes) {
+            for (int k = 0; k < Math.min(fanout, nodeCount - 1); k++) {
+                Node other = nodes.get(random.nextInt(nodeCount));
+                if (other != node) {
+                    node.dht.addDiscoveryPeer(new InetSocketAddress(other.address, searchPort));
+                }
+            }
+        }
+        System.out.printf("Started %d nodes (%d albums x %d tracks each) under %s%n",
+                nodeCount, albumsPerNode, tracksPerAlbum, root);
+    }
+
+    private void runWorkload() throws InterruptedException {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        threads.resetPeakThreadCount();
+        int threadsBefore = threads.getThreadCount();
+        long servedBefore = totalQueriesServed();
+
+        List<String> script = new ArrayList<>(queryCount);
+        List<Node> origins = new ArrayList<>(queryCount);
+        for (int q = 0; q < queryCount; q++) {
+            script.add(zipfWord());
+            origins.add(nodes.get(random.nextInt(nodeCount)));
+        }
+
+        long[] latencies = new long[queryCount];
+        AtomicLong totalResults = new AtomicLong();
+        ExecutorService workers = Executors.newFixedThreadPool(concurrency);
+        long start = System.nanoTime();
+        for (int q = 0; q < queryCount; q++) {
+            final int idx = q;
+            workers.submit(() -> {
+                long t0 = System.nanoTime();
+                List<KeywordSearchClient.SearchResult> results = origins.get(idx).dht.searchKeyword(script.get(idx));
+                latencies[idx] = System.nanoTime() - t0;
+                totalResults.addAndGet(results.size());
+            });
+        }
+        workers.shutdown();
+        workers.awaitTermination(1, TimeUnit.HOURS);
+        long wallNanos = System.nanoTime() - start;
+
+        long served = totalQueriesServed() - servedBefore;
+        double knownPeers = nodes.stream().mapToInt(n -> n.dht.getDiscoveryPeers().size()).average().orElse(0);
+        Arrays.sort(latencies);
+
+        System.out.printf("Queries:            %d (concurrency %d) in %.1f s%n", queryCount, concurrency, wallNanos / 1e9);
+        System.out.printf("Latency ms:         p50 %.1f  p90 %.1f  p99 %.1f  max %.1f%n",
+                percentile(latencies, 50), percentile(latencies, 90), percentile(latencies, 99),
+                latencies.length > 0 ? latencies[latencies.length - 1] / 1e6 : 0.0);
+        System.out.printf("Peer queries/search: %.1f%n", (double) served / Math.max(1, queryCount));
+        System.out.printf("Rejected by peers:  %d (global limit only; loopback skips per-IP admission)%n",
+                nodes.stream().mapToLong(n -> n.server.getQueriesRejected()).sum());
+        System.out.printf("Results/search:     %.1f%n", (double) totalResults.get() / Math.max(1, queryCount));
+        System.out.printf("Known peers/node:   %.1f%n", knownPeers);
+        System.out.printf("Threads:            before %d  peak %d  after %d%n",
+                threadsBefore, threads.getPeakThreadCount(), threads.getThreadCount());
+    }
+
+    private void shutdown() {
+        for (Node node : nodes) {
+            node.server.stop();
+        }
+        if (root != null) {
+            try (var paths = Files.walk(root)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            } catch (IOException e) {
+                logger.warn("Failed to clean up {}", root, e);
+            }
+        }
+    }
+
+    private long totalQueriesServed() {
+        return nodes.stream().mapToLong(n -> n.server.getQueriesServed()).sum();
+    }
+
+    private List<Map<String, Object>> buildAlbumPool(int size) {
+        List<Map<String, Object>> pool = new ArrayList<>(size);
+        for (int a = 0; a < size; a++) {
+            String artist = capitalize(zipfWord()) + " " + capitalize(WORDS[random.nextInt(WORDS.length)]);
+            String album = capitalize(zipfWord()) + " " + capitalize(WORDS[random.nextInt(WORDS.length)]) + " " + a;
+            String hash = String.format("%040x", new java.math.BigInteger(160, random));
+
+            List<Map<String, Object>> trackList = new ArrayList<>();
+            for (int t = 0; t < tracksPerAlbum; t++) {
+                String title = capitalize(zipfWord()) + " " + capitalize(WORDS[random.nextInt(WORDS.length)]);
+                Map<String, Object> track = new LinkedHashMap<>();
+                track.put("title", title);
+                track.put("artist", artist);
+                track.put("trackNumber", String.format("%02d", t + 1));
+                track.put("discNumber", "01");
+                track.put("duration", 180L + random.nextInt(240));
+                track.put("bitrate", 320);
+                track.put("fileName", String.format("01_%02d_%s.mp3", t + 1, title.replace(' ', '_')));
+                trackList.add(track);
+            }
+
+            Map<String, Object> meta = new LinkedHashMap<>();
+            meta.put("torrent_id", hash);
+            meta.put("torrent_hash", hash);
+            meta.put("title", album);
+            meta.put("artist", artist);
+            meta.put("album", album);
+            meta.put("genre", GENRES[random.nextInt(GENRES.length)]);
+            meta.put("year", 1960 + random.nextInt(65));
+            meta.put("bitrate", 320);
+            meta.put("tracks", trackList);
+            pool.add(meta);
+        }
+        return pool;
+    }
+
+    /**
+     * Writes {@code albumsPerNode} albums drawn from the shared pool with a skew
+     * towards the front, so popular albums are held by many nodes like real swarms.
+     */
+    @SuppressWarnings("unchecked")
+    private void writeCatalog(Path metadataDir, Path libraryDir, List<Map<String, Object>> pool) throws IOException {
+        Files.createDirectories(metadataDir);
+        Set<Integer> picked = new HashSet<>();
+        while (picked.size() < Math.min(albumsPerNode, pool.size())) {
+            double u = random.nextDouble();
+            picked.add((int) (pool.size() * u * u));
+        }
+        for (int idx : picked) {
+            Map<String, Object> meta = pool.get(idx);
+            Path albumDir = libraryDir
+                    .resolve(((String) meta.get("artist")).replace(' ', '_'))
+                    .resolve(((String) meta.get("album")).replace(' ', '_'));
+            Files.createDirectories(albumDir);
+            for (Map<String, Object> track : (List<Map<String, Object>>) meta.get("tracks")) {
+                Path file = albumDir.resolve((String) track.get("fileName"));
+                if (!Files.exists(file)) Files.createFile(file);
+            }
+            objectMapper.writeValue(metadataDir.resolve(meta.get("torrent_hash") + ".json").toFile(), meta);
+        }
+    }
+
+    /** Picks a vocabulary word with a roughly Zipfian bias towards the start of the list. */
+    private String zipfWord() {
+        double u = random.nextDouble();
+        return WORDS[(int) (WORDS.length * u * u * u)];
+    }
+
+    private static double percentile(long[] sorted, int p) {
+        if (sorted.length == 0) return 0.0;
+        int idx = (int) Math.ceil(p / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(idx, sorted.length - 1))] / 1e6;
+    }
+
+    private static String capitalize(String s) {
+        return Character.toUpperCase(s.charAt(0)) + s.substring(1);
+    }
+
+    private static int intOption(Map<String, String> options, String key, int def) {
+        String v = options.get(key);
+        return v != null ? Integer.parseInt(v) : def;
+    }
+}